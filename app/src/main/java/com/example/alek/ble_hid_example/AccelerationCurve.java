@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Pointer acceleration - gain applied to the finger motion depending on its speed, so slow
+ * moves position precisely and a fast swipe crosses a large screen.
+ *
+ * Every curve is sampled into a table of TABLE_SIZE gains up to MAX_SPEED when the class is
+ * loaded; gain() is a single indexed read, faster moves get the last entry. Speeds are in
+ * inches per second of finger travel, so the curves do not depend on the display density.
+ */
+enum AccelerationCurve {
+    CURVE_LINEAR("Linear", power(1.0f, 1.0f, 1.0f, 1.0f)),
+    CURVE_SIGMOID("Sigmoid", sigmoid(0.5f, 4.0f, 10.0f, 3.0f)),
+    CURVE_POWER("Power", power(5.0f, 0.8f, 0.4f, 4.0f)),
+    CURVE_CUSTOM("Custom", points(
+            new float[]{0.0f, 3.0f, 8.0f, 20.0f, 40.0f},
+            new float[]{0.4f, 0.7f, 1.5f, 3.0f, 4.0f}));
+
+    final static public int TABLE_SIZE = 256;
+    /* Speed of the last table entry, inches per second */
+    final static public float MAX_SPEED = 64.0f;
+
+    public final String description;
+    private final float[] gains;
+
+    AccelerationCurve(String description, float[] gains) {
+        this.description = description;
+        this.gains = gains;
+    }
+
+    float gain(float speed) {
+        int i = (int) (speed * (TABLE_SIZE / MAX_SPEED));
+
+        return gains[i >= 0 && i < TABLE_SIZE ? i : TABLE_SIZE - 1];
+    }
+
+    static AccelerationCurve forOrdinal(int ordinal) {
+        AccelerationCurve[] curves = values();
+
+        return ordinal >= 0 && ordinal < curves.length ? curves[ordinal] : CURVE_LINEAR;
+    }
+
+    static List<String> getDescriptions() {
+        List<String> l = new ArrayList<>();
+
+        for (AccelerationCurve curve : values()) {
+            l.add(curve.description);
+        }
+
+        return l;
+    }
+
+    private static float speedOf(int entry) {
+        return entry * (MAX_SPEED / TABLE_SIZE);
+    }
+
+    /* Gain (speed / knee) ^ exponent, limited to min..max */
+    private static float[] power(float knee, float exponent, float min, float max) {
+        float[] table = new float[TABLE_SIZE];
+
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            float gain = (float) Math.pow(speedOf(i) / knee, exponent);
+
+            table[i] = gain < min ? min : (gain > max ? max : gain);
+        }
+
+        return table;
+    }
+
+    /* Gain from low to high, half way at the middle speed, width - speed of the e-fold */
+    private static float[] sigmoid(float low, float high, float middle, float width) {
+        float[] table = new float[TABLE_SIZE];
+
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            table[i] = low + (high - low) /
+                    (1.0f + (float) Math.exp((middle - speedOf(i)) / width));
+        }
+
+        return table;
+    }
+
+    /* Gain interpolated between the points, speeds ascending; flat outside of them */
+    private static float[] points(float[] speeds, float[] gains) {
+        float[] table = new float[TABLE_SIZE];
+        int p = 0;
+
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            float speed = speedOf(i);
+
+            while (p < speeds.length - 1 && speed > speeds[p + 1]) {
+                p++;
+            }
+
+            if (speed <= speeds[0]) {
+                table[i] = gains[0];
+            } else if (p == speeds.length - 1) {
+                table[i] = gains[p];
+            } else {
+                table[i] = gains[p] + (gains[p + 1] - gains[p]) *
+                        (speed - speeds[p]) / (speeds[p + 1] - speeds[p]);
+            }
+        }
+
+        return table;
+    }
+}
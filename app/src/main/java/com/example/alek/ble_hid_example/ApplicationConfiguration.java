@@ -24,6 +24,10 @@ class ApplicationConfiguration {
     final static public int MOUSE_FEAT = 0x03;
     final static public int KEYBOARD_FEAT = 0x04;
     final static public int BASIC_FEAT = 0x05;
+    final static public int NKRO_FEAT = 0x06;
+    final static public int HIRES_MOUSE_FEAT = 0x07;
+    final static public int DIGITIZER_FEAT = 0x08;
+    final static public int PREDICT_MOTION_FEAT = 0x09;
     private final static int TRUE = 1;
     private final static int FALSE = 0;
     final static private int[][] FEAT_ID_ARRAY = {
@@ -33,6 +37,10 @@ class ApplicationConfiguration {
             {MOUSE_FEAT, R.string.saved_enable_mouse, FALSE},
             {KEYBOARD_FEAT, R.string.saved_enable_keyboard, FALSE},
             {BASIC_FEAT, R.string.saved_basic_mode, TRUE},
+            {NKRO_FEAT, R.string.saved_nkro_keyboard, FALSE},
+            {HIRES_MOUSE_FEAT, R.string.saved_hires_mouse, FALSE},
+            {DIGITIZER_FEAT, R.string.saved_digitizer, FALSE},
+            {PREDICT_MOTION_FEAT, R.string.saved_predict_motion, FALSE},
     };
 
     static void initializeConfiguration(Context context) {
@@ -70,6 +78,24 @@ class ApplicationConfiguration {
         }
     }
 
+    /* Pointer acceleration of the mouse pad - ordinal of AccelerationCurve */
+    static void setAccelerationCurve(Context context, AccelerationCurve curve) {
+        SharedPreferences sharedPref = context.getSharedPreferences(
+                context.getString(R.string.app_name_prefs), Context.MODE_PRIVATE);
+
+        sharedPref.edit().putInt(context.getString(R.string.saved_acceleration_curve),
+                curve.ordinal()).apply();
+    }
+
+    static AccelerationCurve getAccelerationCurve(Context context) {
+        SharedPreferences sharedPref = context.getSharedPreferences(
+                context.getString(R.string.app_name_prefs), Context.MODE_PRIVATE);
+
+        return AccelerationCurve.forOrdinal(sharedPref.getInt(
+                context.getString(R.string.saved_acceleration_curve),
+                AccelerationCurve.CURVE_SIGMOID.ordinal()));
+    }
+
     static boolean getConfigurationField(Context context, int feature) {
         SharedPreferences sharedPref = context.getSharedPreferences(
                 context.getString(R.string.app_name_prefs), Context.MODE_PRIVATE);
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+/*
+ * Boot protocol formats - the fixed reports of the HID boot keyboard (modifiers, reserved byte,
+ * 6 key slots) and boot mouse (3 buttons, X, Y) which BIOS and firmware hosts understand
+ * without reading the Report Map. Used when the host writes boot mode to the Protocol Mode
+ * characteristic; the consumer report has no boot format.
+ */
+final class BootReport {
+    final static public int PROTOCOL_MODE_BOOT = 0x00;
+    final static public int PROTOCOL_MODE_REPORT = 0x01;
+
+    final static public int BOOT_KEYBOARD_LENGTH = 8;
+    final static public int BOOT_MOUSE_LENGTH = 3;
+    private final static int BOOT_KEY_SLOTS = 6;
+    private final static int BOOT_MOUSE_BUTTONS = 0x07;
+    private final static int BOOT_MOUSE_AXIS = 127;
+
+    private BootReport() {
+    }
+
+    /* Length of the boot format of the report, 0 if there is none */
+    static int length(InputReport report) {
+        switch (report) {
+            case INPUT_REPORT_KEYBOARD:
+                return BOOT_KEYBOARD_LENGTH;
+            case INPUT_REPORT_MOUSE:
+                return BOOT_MOUSE_LENGTH;
+            default:
+                return 0;
+        }
+    }
+
+    /* Keys held in the NKRO bitmap take the free key slots as long as there are any */
+    private static void encodeBitmap(byte[] value, byte[] out) {
+        int offset = ReportField.REPORT_FIELD_KEYBOARD_NKRO_LOW.byte_offset;
+        int slot = 2;
+
+        if (offset < 0) {
+            return;
+        }
+
+        for (int bit = 0; bit < ReportField.NKRO_KEYS; bit++) {
+            byte usage = (byte) (ReportField.NKRO_FIRST_USAGE + bit);
+
+            if ((value[offset + bit / 8] & (1 << (bit % 8))) == 0 || isHeld(out, usage)) {
+                continue;
+            }
+
+            while (slot < BOOT_KEYBOARD_LENGTH && out[slot] != 0) {
+                slot++;
+            }
+
+            if (slot == BOOT_KEYBOARD_LENGTH) {
+                return;
+            }
+
+            out[slot] = usage;
+        }
+    }
+
+    private static boolean isHeld(byte[] out, byte usage) {
+        for (int i = 2; i < BOOT_KEYBOARD_LENGTH; i++) {
+            if (out[i] == usage) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static int clamp(int v) {
+        return v > BOOT_MOUSE_AXIS ? BOOT_MOUSE_AXIS : (v < -BOOT_MOUSE_AXIS ? -BOOT_MOUSE_AXIS : v);
+    }
+
+    /* High resolution motion is cut to the signed 8 bits of the boot mouse, see remainder() */
+    private static int axis(byte[] value, ReportField low, ReportField high) {
+        if (low.byte_offset >= 0) {
+            return low.getRelative(value);
+        }
+
+        return clamp(high.getRelative(value));
+    }
+
+    /* Motion of the high resolution axis which did not fit the boot mouse report of value */
+    static int remainder(byte[] value, ReportField high) {
+        int v;
+
+        if (high.byte_offset < 0) {
+            return 0;
+        }
+
+        v = high.getRelative(value);
+        return v - clamp(v);
+    }
+
+    /* Encode value of the report into out, false if the report has no boot format */
+    static boolean encode(InputReport report, byte[] value, byte[] out) {
+        switch (report) {
+            case INPUT_REPORT_KEYBOARD: {
+                int meta = ReportField.REPORT_FIELD_KEYBOARD_META_KEYS.byte_offset;
+                int keys = ReportField.REPORT_FIELD_KEYBOARD_KEYS.byte_offset;
+
+                out[0] = value[meta];
+                out[1] = 0;
+                System.arraycopy(value, keys, out, 2, BOOT_KEY_SLOTS);
+                encodeBitmap(value, out);
+                return true;
+            }
+            case INPUT_REPORT_MOUSE:
+                /* Wheel has no place in the boot mouse report */
+                out[0] = (byte) (value[ReportField.REPORT_FIELD_MOUSE_BUTTONS.byte_offset] &
+                        BOOT_MOUSE_BUTTONS);
+                out[1] = (byte) axis(value, ReportField.REPORT_FIELD_MOUSE_X,
+                        ReportField.REPORT_FIELD_MOUSE_HIRES_X);
+                out[2] = (byte) axis(value, ReportField.REPORT_FIELD_MOUSE_Y,
+                        ReportField.REPORT_FIELD_MOUSE_HIRES_Y);
+                return true;
+            default:
+                return false;
+        }
+    }
+}
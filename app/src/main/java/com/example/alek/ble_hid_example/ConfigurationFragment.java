@@ -17,20 +17,42 @@ package com.example.alek.ble_hid_example;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v4.app.Fragment;
 import android.support.v4.content.IntentCompat;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
 import android.widget.CompoundButton;
+import android.widget.Spinner;
 import android.widget.Switch;
 import android.widget.TextView;
 
 public class ConfigurationFragment extends Fragment implements
-        CompoundButton.OnCheckedChangeListener, View.OnClickListener {
+        CompoundButton.OnCheckedChangeListener, View.OnClickListener,
+        AdapterView.OnItemSelectedListener {
     private static final String BASIC_STRING_ENABLED = "Consumer";
     private static final String BASIC_STRING_DISABLED = BASIC_STRING_ENABLED +
             " + Mouse\nKeyboard + D-Pad";
+    private static final long LATENCY_REFRESH_PERIOD_MS = 1000;
+
+    private final Handler handler = new Handler();
+    private final Runnable latencyUpdate = new Runnable() {
+        @Override
+        public void run() {
+            MainActivity activity = (MainActivity) getActivity();
+            TextView tv = activity == null ? null :
+                    (TextView) activity.findViewById(R.id.conf_latency_text);
+
+            if (tv != null) {
+                tv.setText(activity.getLatencySummary());
+            }
+
+            handler.postDelayed(this, LATENCY_REFRESH_PERIOD_MS);
+        }
+    };
 
     public static ConfigurationFragment newInstance() {
         return new ConfigurationFragment();
@@ -47,6 +69,10 @@ public class ConfigurationFragment extends Fragment implements
         int[][] ids = {
                 {R.id.conf_pair_switch, ApplicationConfiguration.FORCE_BOND_FEAT},
                 {R.id.conf_basic_switch, ApplicationConfiguration.BASIC_FEAT},
+                {R.id.conf_nkro_switch, ApplicationConfiguration.NKRO_FEAT},
+                {R.id.conf_hires_mouse_switch, ApplicationConfiguration.HIRES_MOUSE_FEAT},
+                {R.id.conf_digitizer_switch, ApplicationConfiguration.DIGITIZER_FEAT},
+                {R.id.conf_predict_switch, ApplicationConfiguration.PREDICT_MOTION_FEAT},
         };
 
         for (int[] pair : ids) {
@@ -64,7 +90,32 @@ public class ConfigurationFragment extends Fragment implements
                 getActivity().findViewById(R.id.conf_basic_switch)).isChecked() ?
                 BASIC_STRING_ENABLED : BASIC_STRING_DISABLED);
 
+        Spinner spinner_accel = (Spinner) getActivity().findViewById(R.id.conf_accel_spinner);
+        ArrayAdapter<String> dataAdapter_accel = new ArrayAdapter<>(getContext(),
+                android.R.layout.simple_spinner_item, AccelerationCurve.getDescriptions());
+        dataAdapter_accel.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        spinner_accel.setAdapter(dataAdapter_accel);
+        spinner_accel.setSelection(
+                ApplicationConfiguration.getAccelerationCurve(getContext()).ordinal());
+        spinner_accel.setOnItemSelectedListener(this);
+
         getActivity().findViewById(R.id.conf_reboot_button).setOnClickListener(this);
+        getActivity().findViewById(R.id.conf_latency_export_button).setOnClickListener(this);
+        getActivity().findViewById(R.id.conf_latency_clear_button).setOnClickListener(this);
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+
+        handler.post(latencyUpdate);
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+
+        handler.removeCallbacks(latencyUpdate);
     }
 
     @Override
@@ -76,6 +127,22 @@ public class ConfigurationFragment extends Fragment implements
                 ApplicationConfiguration.setConfigurationField(getContext(),
                         ApplicationConfiguration.FORCE_BOND_FEAT, isChecked);
                 break;
+            case R.id.conf_nkro_switch:
+                ApplicationConfiguration.setConfigurationField(getContext(),
+                        ApplicationConfiguration.NKRO_FEAT, isChecked);
+                break;
+            case R.id.conf_hires_mouse_switch:
+                ApplicationConfiguration.setConfigurationField(getContext(),
+                        ApplicationConfiguration.HIRES_MOUSE_FEAT, isChecked);
+                break;
+            case R.id.conf_digitizer_switch:
+                ApplicationConfiguration.setConfigurationField(getContext(),
+                        ApplicationConfiguration.DIGITIZER_FEAT, isChecked);
+                break;
+            case R.id.conf_predict_switch:
+                ApplicationConfiguration.setConfigurationField(getContext(),
+                        ApplicationConfiguration.PREDICT_MOTION_FEAT, isChecked);
+                break;
             case R.id.conf_basic_switch:
                 ApplicationConfiguration.setConfigurationField(getContext(),
                         ApplicationConfiguration.BASIC_FEAT, isChecked);
@@ -100,9 +167,33 @@ public class ConfigurationFragment extends Fragment implements
         mainActivity.pager.setAdapter(mainActivity.pagerAdapter);
     }
 
+    @Override
+    public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+        // Takes effect with the next touch of the mouse pad - no restart needed
+        if (parent.getId() == R.id.conf_accel_spinner) {
+            ApplicationConfiguration.setAccelerationCurve(getContext(),
+                    AccelerationCurve.forOrdinal(position));
+        }
+    }
+
+    @Override
+    public void onNothingSelected(AdapterView<?> parent) {
+    }
+
     @Override
     public void onClick(View v) {
-        if (v.getId() == R.id.conf_reboot_button) {
+        MainActivity mainActivity = (MainActivity) getActivity();
+
+        if (v.getId() == R.id.conf_latency_export_button) {
+            Intent i = new Intent(Intent.ACTION_SEND);
+
+            i.setType("text/csv");
+            i.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.latency));
+            i.putExtra(Intent.EXTRA_TEXT, mainActivity.exportLatency());
+            startActivity(Intent.createChooser(i, getString(R.string.export_latency)));
+        } else if (v.getId() == R.id.conf_latency_clear_button) {
+            mainActivity.clearLatencyStats();
+        } else if (v.getId() == R.id.conf_reboot_button) {
             Intent i = getActivity().getBaseContext().getPackageManager()
                     .getLaunchIntentForPackage(getActivity().getBaseContext().getPackageName());
 
@@ -147,25 +147,24 @@ public class ConsumerFragment extends Fragment implements Button.OnTouchListener
 
     @Override
     public boolean onTouch(View v, MotionEvent event) {
-        short toSend = 0;
-        int value = ConsumerControlUsage.getUsage(v.getId());
+        int value = ConsumerControlUsage.getUsage(v.getId()) & 0xffff;
         MainActivity activity = (MainActivity) getActivity();
 
         if (value == 0) {
             return false;
         }
 
+        // Only the touched control changes - other held controls stay pressed
         if (event.getAction() == MotionEvent.ACTION_DOWN) {
-            toSend |= value;
+            activity.setReportBits(ReportField.REPORT_FIELD_CONSUMER_CONTROL, value, true,
+                    event.getEventTime());
         } else if (event.getAction() == MotionEvent.ACTION_UP) {
-            toSend &= ~value;
-            toSend &= 0xffff;
+            activity.setReportBits(ReportField.REPORT_FIELD_CONSUMER_CONTROL, value, false,
+                    event.getEventTime());
         } else {
             return false;
         }
 
-        activity.sendNotification(ReportField.REPORT_FIELD_CONSUMER_CONTROL, toSend);
-
         return true;
     }
 
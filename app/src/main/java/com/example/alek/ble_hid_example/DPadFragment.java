@@ -91,7 +91,8 @@ public class DPadFragment extends Fragment implements View.OnTouchListener {
             return false;
         }
 
-        activity.sendNotification(ReportField.REPORT_FIELD_KEYBOARD_KEYS, toSend);
+        activity.sendNotification(ReportField.REPORT_FIELD_KEYBOARD_KEYS, toSend,
+                event.getEventTime());
 
         return true;
     }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+/*
+ * Contacts of the absolute digitizer (touch screen) report - see ReportMap.digitizer(). The
+ * whole report is one 64-bit field, so all contacts and their count change at once:
+ *
+ *   contact 1 | contact 2 | contact count (8 bits)
+ *
+ * where a contact is the tip switch (1 bit), contact identifier (CONTACT_ID_BITS) and the
+ * absolute X and Y (AXIS_BITS each). Positions are fractions of the pad, 0..1 left to right and
+ * top to bottom; the host maps them onto its whole screen.
+ *
+ * Some hosts ignore a touch screen without physical extents. The real size of the pad is not
+ * known when the Report Map is built, so both axes declare a nominal PAD_SIZE - the host
+ * scales the logical range to its screen either way.
+ */
+final class DigitizerReport {
+    final static public int CONTACTS = 2;
+    final static public int CONTACT_ID_BITS = 3;
+    final static public int AXIS_BITS = 12;
+    final static public int AXIS_MAX = (1 << AXIS_BITS) - 1;
+    /* Physical extent of both axes, 0.1 mm */
+    final static public int PAD_SIZE = 1000;
+
+    private final static ReportField[] CONTACT_FIELDS = {
+            ReportField.REPORT_FIELD_DIGITIZER_CONTACT_1,
+            ReportField.REPORT_FIELD_DIGITIZER_CONTACT_2,
+    };
+
+    private DigitizerReport() {
+    }
+
+    /* Bits of the contact within REPORT_FIELD_DIGITIZER_ALL, 0 if the slot is not present */
+    static long contact(int slot, int id, boolean tip, float x, float y) {
+        ReportField rf = CONTACT_FIELDS[slot];
+        long bits;
+
+        if (rf.bit_offset < 0) {
+            return 0;
+        }
+
+        bits = (tip ? 1 : 0) | ((id & ((1 << CONTACT_ID_BITS) - 1)) << 1) |
+                ((long) axis(x) << (1 + CONTACT_ID_BITS)) |
+                ((long) axis(y) << (1 + CONTACT_ID_BITS + AXIS_BITS));
+
+        return bits << (rf.bit_offset - ReportField.REPORT_FIELD_DIGITIZER_ALL.bit_offset);
+    }
+
+    /* Number of contacts reported, the lifted ones included */
+    static long count(int count) {
+        return (long) count << (ReportField.REPORT_FIELD_DIGITIZER_CONTACT_COUNT.bit_offset -
+                ReportField.REPORT_FIELD_DIGITIZER_ALL.bit_offset);
+    }
+
+    /*
+     * Same contacts touching in both values of the report - tip switches, identifiers and the
+     * count are equal, only positions may differ
+     */
+    static boolean sameContacts(byte[] a, byte[] b) {
+        ReportField all = ReportField.REPORT_FIELD_DIGITIZER_ALL;
+        long mask = 0xffL << (ReportField.REPORT_FIELD_DIGITIZER_CONTACT_COUNT.bit_offset -
+                all.bit_offset);
+        long diff = 0;
+
+        for (ReportField rf : CONTACT_FIELDS) {
+            if (rf.bit_offset >= 0) {
+                mask |= ((1L << (1 + CONTACT_ID_BITS)) - 1) << (rf.bit_offset - all.bit_offset);
+            }
+        }
+
+        for (int i = 0; i < all.bit_size / 8; i++) {
+            diff |= (long) ((a[all.byte_offset + i] ^ b[all.byte_offset + i]) & 0xff) << (8 * i);
+        }
+
+        return (diff & mask) == 0;
+    }
+
+    private static int axis(float v) {
+        return v <= 0 ? 0 : (v >= 1 ? AXIS_MAX : Math.round(v * AXIS_MAX));
+    }
+}
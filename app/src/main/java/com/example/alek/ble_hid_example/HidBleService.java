@@ -29,18 +29,25 @@ import android.bluetooth.le.AdvertiseCallback;
 import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertiseSettings;
 import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.BatteryManager;
 import android.os.Binder;
 import android.os.IBinder;
 import android.os.ParcelUuid;
 import android.util.Log;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Objects;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static android.bluetooth.BluetoothAdapter.STATE_CONNECTED;
 import static android.bluetooth.BluetoothAdapter.STATE_DISCONNECTED;
@@ -51,9 +58,13 @@ import static android.bluetooth.BluetoothGattCharacteristic.PERMISSION_WRITE;
 import static android.bluetooth.BluetoothGattCharacteristic.PERMISSION_WRITE_ENCRYPTED;
 import static android.bluetooth.BluetoothGattCharacteristic.PERMISSION_WRITE_ENCRYPTED_MITM;
 import static com.example.alek.ble_hid_example.UUIDs.CHAR_BATTERY_LEVEL;
+import static com.example.alek.ble_hid_example.UUIDs.CHAR_BOOT_KEYBOARD_INPUT;
+import static com.example.alek.ble_hid_example.UUIDs.CHAR_BOOT_KEYBOARD_OUTPUT;
+import static com.example.alek.ble_hid_example.UUIDs.CHAR_BOOT_MOUSE_INPUT;
 import static com.example.alek.ble_hid_example.UUIDs.CHAR_HID_CONTROL_POINT;
 import static com.example.alek.ble_hid_example.UUIDs.CHAR_HID_INFORMATION;
 import static com.example.alek.ble_hid_example.UUIDs.CHAR_PNP_ID;
+import static com.example.alek.ble_hid_example.UUIDs.CHAR_PROTOCOL_MODE;
 import static com.example.alek.ble_hid_example.UUIDs.CHAR_REPORT;
 import static com.example.alek.ble_hid_example.UUIDs.CHAR_REPORT_MAP;
 import static com.example.alek.ble_hid_example.UUIDs.DESC_CCC;
@@ -74,131 +85,81 @@ enum SecurityLevel {
     SECURITY_LEVEL_3,   // Authentication
 }
 
-enum ReportField {
-    /* Consumer */
-    REPORT_FIELD_CONSUMER_CONTROL(0, 2),
-    REPORT_FIELD_LAUNCHER_BUTTON(2, 2),
-    REPORT_FIELD_CONTROL_BUTTON(4, 2),
-    /* Keyboard */
-    REPORT_FIELD_KEYBOARD_META_KEYS(6, 1),
-    REPORT_FIELD_KEYBOARD_KEYS(7, 1),
-    REPORT_FIELD_KEYBOARD_ALL(6, 2),    // REPORT_FIELD_KEYBOARD_META_KEYS + REPORT_FIELD_KEYBOARD_KEYS
-    /* Mouse */
-    REPORT_FIELD_MOUSE_BUTTONS(8, 1),
-    REPORT_FIELD_MOUSE_X(9, 1),
-    REPORT_FIELD_MOUSE_Y(10, 1),
-    REPORT_FIELD_MOUSE_BUTTONS_XY(8, 3),
-    REPORT_FIELD_MOUSE_XY(9, 2),
-    REPORT_FIELD_MOUSE_SCROLL(11, 1);
-
-    final static public int REP_CONSUMER = 0x01;
-    final static public int REP_MOUSE = 0x02;
-    final static public int REP_KEYBOARD = 0x04;
-    final static public int REP_BASIC = 0x08;
-    public final int byte_size;
-    public int byte_offset;
-
-    ReportField(int byte_offset, int byte_size) {
-        this.byte_offset = byte_offset;
-        this.byte_size = byte_size;
-    }
-
-    static void updateValues(int features) {
-        /* Restore original value */
-        REPORT_FIELD_CONSUMER_CONTROL.byte_offset = 0;
-        REPORT_FIELD_LAUNCHER_BUTTON.byte_offset = 2;
-        REPORT_FIELD_CONTROL_BUTTON.byte_offset = 4;
-
-        REPORT_FIELD_KEYBOARD_META_KEYS.byte_offset = 6;
-        REPORT_FIELD_KEYBOARD_KEYS.byte_offset = 7;
-        REPORT_FIELD_KEYBOARD_ALL.byte_offset = 6;
-
-        REPORT_FIELD_MOUSE_BUTTONS.byte_offset = 8;
-        REPORT_FIELD_MOUSE_X.byte_offset = 9;
-        REPORT_FIELD_MOUSE_Y.byte_offset = 10;
-        REPORT_FIELD_MOUSE_BUTTONS_XY.byte_offset = 8;
-        REPORT_FIELD_MOUSE_XY.byte_offset = 9;
-        REPORT_FIELD_MOUSE_SCROLL.byte_offset = 11;
-
-        if ((features & REP_CONSUMER) == 0) {
-            REPORT_FIELD_CONSUMER_CONTROL.byte_offset = -1;
-            REPORT_FIELD_LAUNCHER_BUTTON.byte_offset = -1;
-            REPORT_FIELD_CONTROL_BUTTON.byte_offset = -1;
-
-            REPORT_FIELD_KEYBOARD_META_KEYS.byte_offset -= 6;
-            REPORT_FIELD_KEYBOARD_KEYS.byte_offset -= 6;
-            REPORT_FIELD_KEYBOARD_ALL.byte_offset -= 6;
-
-            REPORT_FIELD_MOUSE_BUTTONS.byte_offset -= 6;
-            REPORT_FIELD_MOUSE_X.byte_offset -= 6;
-            REPORT_FIELD_MOUSE_Y.byte_offset -= 6;
-            REPORT_FIELD_MOUSE_BUTTONS_XY.byte_offset -= 6;
-            REPORT_FIELD_MOUSE_XY.byte_offset -= 6;
-            REPORT_FIELD_MOUSE_SCROLL.byte_offset -= 6;
-        } else if ((features & REP_BASIC) == REP_BASIC) {
-            REPORT_FIELD_LAUNCHER_BUTTON.byte_offset = -1;
-            REPORT_FIELD_CONTROL_BUTTON.byte_offset = -1;
-
-            REPORT_FIELD_KEYBOARD_META_KEYS.byte_offset -= 4;
-            REPORT_FIELD_KEYBOARD_KEYS.byte_offset -= 4;
-            REPORT_FIELD_KEYBOARD_ALL.byte_offset -= 4;
-
-            REPORT_FIELD_MOUSE_BUTTONS.byte_offset -= 4;
-            REPORT_FIELD_MOUSE_X.byte_offset -= 4;
-            REPORT_FIELD_MOUSE_Y.byte_offset -= 4;
-            REPORT_FIELD_MOUSE_BUTTONS_XY.byte_offset -= 4;
-            REPORT_FIELD_MOUSE_XY.byte_offset -= 4;
-            REPORT_FIELD_MOUSE_SCROLL.byte_offset -= 4;
-        }
-
-        if ((features & REP_KEYBOARD) == 0) {
-            REPORT_FIELD_KEYBOARD_META_KEYS.byte_offset = -1;
-            REPORT_FIELD_KEYBOARD_KEYS.byte_offset = -1;
-            REPORT_FIELD_KEYBOARD_ALL.byte_offset = -1;
-
-            REPORT_FIELD_MOUSE_BUTTONS.byte_offset -= 2;
-            REPORT_FIELD_MOUSE_X.byte_offset -= 2;
-            REPORT_FIELD_MOUSE_Y.byte_offset -= 2;
-            REPORT_FIELD_MOUSE_BUTTONS_XY.byte_offset -= 2;
-            REPORT_FIELD_MOUSE_XY.byte_offset -= 2;
-            REPORT_FIELD_MOUSE_SCROLL.byte_offset -= 2;
-        }
-
-        if ((features & REP_MOUSE) == 0) {
-            REPORT_FIELD_MOUSE_BUTTONS.byte_offset = -1;
-            REPORT_FIELD_MOUSE_X.byte_offset = -1;
-            REPORT_FIELD_MOUSE_Y.byte_offset = -1;
-            REPORT_FIELD_MOUSE_BUTTONS_XY.byte_offset = -1;
-            REPORT_FIELD_MOUSE_XY.byte_offset = -1;
-            REPORT_FIELD_MOUSE_SCROLL.byte_offset = -1;
-        }
-    }
-}
-
-class NotificationData {
-    public final byte[] value;
-    public final BluetoothDevice device;
-    public final BluetoothGattCharacteristic characteristic;
-    public final boolean responseNeeded;
-
-    NotificationData(BluetoothDevice device, BluetoothGattCharacteristic characteristic, byte[] value) {
-        this.device = device;
-        this.characteristic = characteristic;
-        this.value = value;
-        this.responseNeeded = false;
-    }
-}
-
 public class HidBleService extends Service {
+    private static final long NS_PER_MS = 1000000L;
+    /* How long onDestroy() waits for typers to release their keys */
+    private static final long TYPING_STOP_TIMEOUT_MS = 500;
     private final IBinder mBinder = new LocalBinder();
-    private final ArrayList<BluetoothDevice> devices = new ArrayList<>();
-    private final ArrayList<NotificationData> pendingNotifications = new ArrayList<>();
+    /* Changed by binder callbacks, iterated by the UI and the typing threads */
+    private final CopyOnWriteArrayList<BluetoothDevice> devices = new CopyOnWriteArrayList<>();
     /* Call proper methods on some BLE events  */
     private MainActivity mainActivity;
     private BluetoothGattServerCallback mGattServerCallback;
-    private boolean notificationPossible;
     private BluetoothGattServer gattServer;
-    private Thread check_thread = null;
+    /* Report characteristic of every InputReport, indexed by ordinal(), null if not present */
+    private final BluetoothGattCharacteristic reportCharacteristics[] =
+            new BluetoothGattCharacteristic[InputReport.values().length];
+    /* Boot Keyboard / Boot Mouse Input Report characteristics, indexed like the above */
+    private final BluetoothGattCharacteristic bootCharacteristics[] =
+            new BluetoothGattCharacteristic[InputReport.values().length];
+    /* Protocol Mode characteristic, null if there is none */
+    private BluetoothGattCharacteristic protocolModeCharacteristic;
+    /* Feature Report characteristics, indexed like the above, null if there is none */
+    private final BluetoothGattCharacteristic featureCharacteristics[] =
+            new BluetoothGattCharacteristic[InputReport.values().length];
+    private final HidTransmitter<BluetoothDevice> transmitter = new HidTransmitter<>(
+            new HidTransmitter.Sink<BluetoothDevice>() {
+                @Override
+                public boolean send(NotificationData<BluetoothDevice> nd) {
+                    BluetoothGattCharacteristic characteristic = nd.boot ?
+                            bootCharacteristics[nd.field.report.ordinal()] :
+                            reportCharacteristics[nd.field.report.ordinal()];
+
+                    if (characteristic == null) {
+                        return false;
+                    }
+
+                    characteristic.setValue(nd.boot ? nd.boot_value : nd.value);
+
+                    if (!gattServer.notifyCharacteristicChanged(nd.device, characteristic,
+                            nd.responseNeeded)) {
+                        Log.e("BLE", "Notification refused by the stack - report dropped");
+                        return false;
+                    }
+
+                    return true;
+                }
+            });
+    private final TextTyper.Output typerOutput = new TextTyper.Output() {
+        @Override
+        public void send(long report) {
+            sendNotification(ReportField.REPORT_FIELD_KEYBOARD_ROLLOVER, report,
+                    SendTo.SEND_TO_ALL);
+        }
+
+        @Override
+        public int getBacklog() {
+            return transmitter.getBacklog();
+        }
+    };
+    private final ExecutorService typingExecutor = Executors.newSingleThreadExecutor();
+    private final ReadServer<BluetoothDevice> readServer = new ReadServer<>();
+    private BluetoothGattCharacteristic batteryLevelCharacteristic;
+    /* Keeps the cached battery level current - reads never query BatteryManager */
+    private final BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            BluetoothGattCharacteristic characteristic = batteryLevelCharacteristic;
+
+            if (level < 0 || scale <= 0 || characteristic == null) {
+                return;
+            }
+
+            readServer.updateValue(characteristic, new byte[]{(byte) (level * 100 / scale)});
+        }
+    };
     private final AdvertiseCallback advertisingCallback = new AdvertiseCallback() {
         @Override
         public void onStartSuccess(AdvertiseSettings settingsInEffect) {
@@ -219,122 +180,245 @@ public class HidBleService extends Service {
     }
 
     public void sendNotification(ReportField rf, int value) {
-        sendNotification(rf, value, SendTo.SEND_TO_ALL);
+        sendNotification(rf, value, -1, SendTo.SEND_TO_ALL, System.nanoTime());
     }
 
-    private void sendNotification(ReportField rf, int value, SendTo st) {
-        // Assume one report characteristic or that the notification should be sent from the first
-        BluetoothGattCharacteristic report;
-        byte[] array = new byte[rf.byte_offset + rf.byte_size];
+    /* eventTime - of the source event, SystemClock.uptimeMillis() base (MotionEvent, KeyEvent) */
+    public void sendNotification(ReportField rf, int value, long eventTime) {
+        sendNotification(rf, value, -1, SendTo.SEND_TO_ALL, eventTime * NS_PER_MS);
+    }
 
-        if (devices.size() == 0) {
-            return;
-        }
+    /* Set or clear only the given bits of the field, e.g. one of several held buttons */
+    public void setReportBits(ReportField rf, int bits, boolean set) {
+        sendNotification(rf, set ? bits : 0, bits, SendTo.SEND_TO_ALL, System.nanoTime());
+    }
+
+    public void setReportBits(ReportField rf, int bits, boolean set, long eventTime) {
+        sendNotification(rf, set ? bits : 0, bits, SendTo.SEND_TO_ALL, eventTime * NS_PER_MS);
+    }
 
+    /*
+     * As setReportBits, but the change does not overtake motion queued before it - e.g. a
+     * modifier which gives queued wheel reports their meaning
+     */
+    public void setReportBitsAfterMotion(ReportField rf, int bits, boolean set, long eventTime) {
         if (rf.byte_offset < 0) {
             return;
         }
 
-        report = gattServer.getService(UUID.fromString(UUIDs.SERVICE_HID)).getCharacteristic(
-                UUID.fromString(UUIDs.CHAR_REPORT));
+        for (BluetoothDevice device : devices) {
+            transmitter.updateAfterMotion(device, rf, set ? bits : 0, bits,
+                    eventTime * NS_PER_MS);
+        }
+    }
 
-        Arrays.fill(array, (byte) 0);
+    /* Press or release a single key of the NKRO bitmap, false if the key has no bit there */
+    public boolean setNkroKey(int usage, boolean pressed, long eventTime) {
+        ReportField rf = ReportField.nkroField(usage);
+        long bit;
 
-        for (int i = rf.byte_offset; i < rf.byte_offset + rf.byte_size; i++) {
-            array[i] = (byte) (value & 0xff);
-            value >>= 8;
+        if (rf == null) {
+            return false;
         }
 
-        switch (st) {
-            case SEND_TO_FIRST:
-                pendingNotifications.add(new NotificationData(devices.get(0), report, array));
-                break;
-            case SEND_TO_LAST:
-                pendingNotifications.add(new NotificationData(devices.get(devices.size() - 1),
-                        report, array));
-                break;
-            case SEND_TO_ALL:
-                for (int i = 0; i < devices.size(); i++) {
-                    pendingNotifications.add(new NotificationData(devices.get(i), report, array
-                    ));
-                }
-                break;
-        }
+        bit = ReportField.nkroBit(usage);
+        sendNotification(rf, pressed ? bit : 0, bit, SendTo.SEND_TO_ALL, eventTime * NS_PER_MS);
+        return true;
+    }
+
+    /*
+     * Press or release a key besides the held ones - in its NKRO bit if it has one, otherwise
+     * in the last slot of the 6-key report, which is taken only when six keys are held. Either
+     * way the key slots of other keys are not touched, and the release frees the slot again.
+     */
+    public void setExtraKey(int usage, boolean pressed, long eventTime) {
+        ReportField rf = ReportField.REPORT_FIELD_KEYBOARD_ROLLOVER;
+        int shift = rf.bit_size - 8;
 
-        if (notificationPossible) {
-            NotificationData toSend = pendingNotifications.remove(0);
-            toSend.characteristic.setValue(toSend.value);
-            gattServer.notifyCharacteristicChanged(toSend.device, toSend.characteristic,
-                    toSend.responseNeeded);
-            notificationPossible = false;
+        if (setNkroKey(usage, pressed, eventTime)) {
             return;
         }
 
-        if (check_thread != null) {
+        sendNotification(rf, pressed ? (long) usage << shift : 0, 0xffL << shift,
+                SendTo.SEND_TO_ALL, eventTime * NS_PER_MS);
+    }
+
+    /*
+     * Pointer motion in counts. Motion beyond the range of the X / Y axes of the report map is
+     * split over several updates, so the displacement stays exact.
+     */
+    public void sendMouseMotion(int dx, int dy, long eventTime) {
+        ReportField rf = ReportField.REPORT_FIELD_MOUSE_HIRES_XY.byte_offset >= 0 ?
+                ReportField.REPORT_FIELD_MOUSE_HIRES_XY : ReportField.REPORT_FIELD_MOUSE_XY;
+        int limit = ReportField.REPORT_FIELD_MOUSE_HIRES_XY.byte_offset >= 0 ?
+                ReportField.REPORT_FIELD_MOUSE_HIRES_X.relativeLimit() :
+                ReportField.REPORT_FIELD_MOUSE_X.relativeLimit();
+        int bits = rf.bit_size / 2;
+        long mask = (1L << bits) - 1;
+
+        while (dx != 0 || dy != 0) {
+            int x = dx > limit ? limit : (dx < -limit ? -limit : dx);
+            int y = dy > limit ? limit : (dy < -limit ? -limit : dy);
+
+            sendNotification(rf, (x & mask) | ((y & mask) << bits), -1, SendTo.SEND_TO_ALL,
+                    eventTime * NS_PER_MS);
+            dx -= x;
+            dy -= y;
+        }
+    }
+
+    /*
+     * Wheel and AC Pan in 1 / ReportField.WHEEL_RESOLUTION detents. Without the high resolution
+     * mouse only whole detents of the wheel are sent - there is no pan either.
+     */
+    public void sendMouseScroll(int wheel, int pan, long eventTime) {
+        if (ReportField.REPORT_FIELD_MOUSE_HIRES_SCROLL.byte_offset < 0) {
+            sendNotification(ReportField.REPORT_FIELD_MOUSE_SCROLL,
+                    wheel / ReportField.WHEEL_RESOLUTION, -1, SendTo.SEND_TO_ALL,
+                    eventTime * NS_PER_MS);
             return;
         }
 
-        check_thread = new Thread() {
-            public void run() {
-                NotificationData toSend;
+        if (wheel != 0) {
+            sendNotification(ReportField.REPORT_FIELD_MOUSE_HIRES_SCROLL, wheel, -1,
+                    SendTo.SEND_TO_ALL, eventTime * NS_PER_MS);
+        }
 
-                while (!notificationPossible) {
-                    if (devices.size() == 0) {
-                        pendingNotifications.clear();
-                        return;
-                    }
-                }
+        if (pan != 0) {
+            sendNotification(ReportField.REPORT_FIELD_MOUSE_HIRES_PAN, pan, -1,
+                    SendTo.SEND_TO_ALL, eventTime * NS_PER_MS);
+        }
+    }
 
-                if (pendingNotifications.size() < 1 || devices.size() == 0) {
-                    check_thread = null;
-                    return;
-                }
+    /*
+     * Keep scrolling every host on the transmitter's thread after the fingers lifted; speeds in
+     * 1 / WHEEL_RESOLUTION detents per second, as sendMouseScroll
+     */
+    public void fling(float wheelRate, float panRate) {
+        ReportField wheel = ReportField.REPORT_FIELD_MOUSE_HIRES_SCROLL;
+        ReportField pan = ReportField.REPORT_FIELD_MOUSE_HIRES_PAN;
+
+        if (wheel.byte_offset < 0) {
+            // Whole detents only, the pan is not there at all
+            wheel = ReportField.REPORT_FIELD_MOUSE_SCROLL;
+            wheelRate /= ReportField.WHEEL_RESOLUTION;
+            pan = null;
+        }
 
-                toSend = pendingNotifications.remove(0);
+        for (BluetoothDevice device : devices) {
+            transmitter.fling(device, wheel, pan, wheelRate, panRate);
+        }
+    }
 
-                if (devices.contains(toSend.device)) {
-                    /* Device could disconnect in the mean time */
-                    toSend.characteristic.setValue(toSend.value);
-                    gattServer.notifyCharacteristicChanged(toSend.device, toSend.characteristic,
-                            toSend.responseNeeded);
-                }
+    public void cancelFling() {
+        transmitter.cancelFling();
+    }
 
-                notificationPossible = false;
-            }
-        };
-        check_thread.start();
+    /* Whole digitizer report - contacts and their count, see DigitizerReport */
+    public void sendContacts(long report, long eventTime) {
+        sendNotification(ReportField.REPORT_FIELD_DIGITIZER_ALL, report, -1, SendTo.SEND_TO_ALL,
+                eventTime * NS_PER_MS);
     }
 
-    public void sendNotification(String s) {
-        sendNotification(s, SendTo.SEND_TO_ALL);
+    private void sendNotification(ReportField rf, long value, SendTo st) {
+        sendNotification(rf, value, -1, st, System.nanoTime());
     }
 
-    private void sendNotification(String s, SendTo st) {
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
+    /* eventTime in ns - uptime and System.nanoTime() share the monotonic clock */
+    private void sendNotification(ReportField rf, long value, long mask, SendTo st,
+                                  long eventTime) {
+        // The report itself is composed from the per-host state on the transmitter's thread
+        if (devices.size() == 0) {
+            return;
+        }
+
+        if (rf.byte_offset < 0) {
+            return;
+        }
 
-            for (int j = 0; j < KeyboardUsage.KEYBOARD_USAGES.length; j++) {
-                short val;
-                byte m;
-                byte k;
+        BluetoothDevice target = null;
 
-                if (Character.toLowerCase(c) == KeyboardUsage.KEYBOARD_USAGES[j].character) {
-                    m = KeyboardUsage.KEYBOARD_USAGES[j].meta;
-                    k = KeyboardUsage.KEYBOARD_USAGES[j].usage;
+        // Iterators see one snapshot of the list, a host may disconnect meanwhile
+        for (BluetoothDevice device : devices) {
+            if (st == SendTo.SEND_TO_ALL) {
+                transmitter.update(device, rf, value, mask, eventTime);
+                continue;
+            }
 
-                    if (Character.isLetter(c) && Character.isUpperCase(c)) {
-                        m |= KeyboardUsage.META_LEFT_SHIFT;
-                    }
+            target = device;
 
-                    val = (short) (m + (k << 8));
-                    sendNotification(ReportField.REPORT_FIELD_KEYBOARD_ALL, (int) val, st);
-                    sendNotification(ReportField.REPORT_FIELD_KEYBOARD_ALL, 0, st);
-                    break;
+            if (st == SendTo.SEND_TO_FIRST) {
+                break;
+            }
+        }
+
+        if (target != null) {
+            transmitter.update(target, rf, value, mask, eventTime);
+        }
+    }
+
+    /* Median touch to host latency of mouse reports, ms - the slowest connected host counts */
+    public int getMotionLatencyMs() {
+        long latency = 0;
+
+        for (BluetoothDevice device : devices) {
+            LatencyStats stats = transmitter.getLatencyStats().get(device);
+
+            if (stats != null) {
+                LatencyHistogram h = stats.get(LatencyStats.TYPE_MOUSE, LatencyStats.STAGE_TOTAL);
+
+                if (h.count() > 0) {
+                    latency = Math.max(latency, h.percentile(50));
                 }
             }
         }
 
-        sendNotification(ReportField.REPORT_FIELD_KEYBOARD_ALL, 0, st);
+        return (int) (latency / NS_PER_MS);
+    }
+
+    /* p50 / p99 / max of every latency stage, per host and report type */
+    public String getLatencySummary() {
+        StringBuilder sb = new StringBuilder();
+
+        for (Map.Entry<BluetoothDevice, LatencyStats> e :
+                transmitter.getLatencyStats().entrySet()) {
+            sb.append(e.getKey().getName()).append("  (").append(e.getKey().getAddress())
+                    .append(")\n");
+            e.getValue().summary(sb);
+        }
+
+        return sb.toString();
+    }
+
+    /* All histogram buckets as CSV */
+    public String exportLatency() {
+        StringBuilder sb = new StringBuilder("host,type,stage,low_us,high_us,count\n");
+
+        for (Map.Entry<BluetoothDevice, LatencyStats> e :
+                transmitter.getLatencyStats().entrySet()) {
+            e.getValue().export(sb, e.getKey().getAddress());
+        }
+
+        return sb.toString();
+    }
+
+    public void clearLatencyStats() {
+        transmitter.clearLatencyStats();
+    }
+
+    public void sendNotification(String s) {
+        typeText(new StringReader(s), s.length(), null);
+    }
+
+    /*
+     * Type text from the reader on the typing thread; texts are typed one after another in the
+     * order they were given. The reader is closed when typing ends.
+     */
+    public TextTyper typeText(Reader reader, long length, TextTyper.Listener listener) {
+        TextTyper typer = new TextTyper(reader, length, typerOutput, listener);
+
+        typingExecutor.execute(typer);
+        return typer;
     }
 
     private void startAdvertising() {
@@ -377,204 +461,20 @@ public class HidBleService extends Service {
         //           -> Report Map
         //           -> HID Information
         //           -> HID Control Point
+        //           -> Protocol Mode (if keyboard or mouse present)
+        //           -> Boot Keyboard Input Report
+        //                   -> Client Characteristic Configuration
+        //           -> Boot Keyboard Output Report
+        //           -> Boot Mouse Input Report
+        //                   -> Client Characteristic Configuration
         //           -> Report
         //                   -> Client Characteristic Configuration
         //                   -> Report Reference
+        //           -> Report (feature, if the report has one)
+        //                   -> Report Reference
         //           ... (another Report characteristics and their descriptors)
         ////////////////////////////////////////////////////////////////////////////////////////////
-        // Report Map - for basic mode
-        final byte REPORT_MAP_BASIC[] = {
-                (byte) 0x05, (byte) 0x0C, /*        Usage Page (Consumer Devices)       */
-                (byte) 0x09, (byte) 0x01, /*        Usage (Consumer Control)            */
-                (byte) 0xA1, (byte) 0x01, /*        Collection (Application)            */
-                (byte) 0x85, (byte) 0x02, /*        Report ID=2                         */
-                (byte) 0x05, (byte) 0x0C, /*        Usage Page (Consumer Devices)       */
-                (byte) 0x15, (byte) 0x00, /*        Logical Minimum (0)                 */
-                (byte) 0x25, (byte) 0x01, /*        Logical Maximum (1)                 */
-                (byte) 0x75, (byte) 0x01, /*        Report Size (1)                     */
-                (byte) 0x95, (byte) 0x0B, /*        Report Count (11)                   */
-
-                (byte) 0x09, (byte) 0x6F, /* 1       Usage (Bright Up)                  */
-                (byte) 0x09, (byte) 0x70, /* 2       Usage (Bright Down)                */
-
-                (byte) 0x09, (byte) 0xB5, /* 3       Usage (Scan Next Track)            */
-                (byte) 0x09, (byte) 0xB6, /* 4       Usage (Scan Previous Track)        */
-                (byte) 0x09, (byte) 0xB7, /* 5       Usage (Stop)                       */
-                (byte) 0x09, (byte) 0xCD, /* 6       Usage (Play / Pause)               */
-
-                (byte) 0x09, (byte) 0xE2, /* 7       Usage (Mute)                       */
-                (byte) 0x09, (byte) 0xE9, /* 8       Usage (Volume Up)                  */
-                (byte) 0x09, (byte) 0xEA, /* 9       Usage (Volume Down)                */
-
-                (byte) 0x09, (byte) 0xB8, /* 10      Usage (Eject)                      */
-                (byte) 0x09, (byte) 0xb8, /* 11      Usage (Snapshot)                   */
-
-                (byte) 0x81, (byte) 0x02, /*        Input (Data, Variable, Absolute)    */
-                (byte) 0x95, (byte) 0x05, /*        Report Count (5)                    */
-                (byte) 0x81, (byte) 0x01, /*        Input (Constant)                    */
-                (byte) 0xC0,
-        };
-
-        // Report Map - concatenation of few arrays
-        final byte REPORT_MAP_START[] = {
-                (byte) 0x05, (byte) 0x0C, /*        Usage Page (Consumer Devices)       */
-                (byte) 0x09, (byte) 0x01, /*        Usage (Consumer Control)            */
-                (byte) 0xA1, (byte) 0x01, /*        Collection (Application)            */
-                (byte) 0x85, (byte) 0x02, /*        Report ID=2                         */
-        };
-        final byte REPORT_MAP_CONSUMER[] =
-                ((features & ReportField.REP_CONSUMER) == ReportField.REP_CONSUMER) ? new byte[]{
-                /*========================== Consumer control ==========================*/
-                        (byte) 0xA1, (byte) 0x02, /*        Collection (Logical)            */
-                        (byte) 0x05, (byte) 0x0C, /*        Usage Page (Consumer Devices)       */
-                        (byte) 0x15, (byte) 0x00, /*        Logical Minimum (0)                 */
-                        (byte) 0x25, (byte) 0x01, /*        Logical Maximum (1)                 */
-                        (byte) 0x75, (byte) 0x01, /*        Report Size (1)                     */
-                        (byte) 0x95, (byte) 0x10, /*        Report Count (16)                   */
-
-                        (byte) 0x09, (byte) 0x6F, /* 1       Usage (Bright Up)                  */
-                        (byte) 0x09, (byte) 0x70, /* 2       Usage (Bright Down)                */
-
-                        (byte) 0x09, (byte) 0xB5, /* 3       Usage (Scan Next Track)            */
-                        (byte) 0x09, (byte) 0xB6, /* 4       Usage (Scan Previous Track)        */
-                        (byte) 0x09, (byte) 0xB7, /* 5       Usage (Stop)                       */
-                        (byte) 0x09, (byte) 0xCD, /* 6       Usage (Play / Pause)               */
-
-                        (byte) 0x09, (byte) 0xE2, /* 7       Usage (Mute)                       */
-                        (byte) 0x09, (byte) 0xE9, /* 8       Usage (Volume Up)                  */
-                        (byte) 0x09, (byte) 0xEA, /* 9       Usage (Volume Down)                */
-
-                        (byte) 0x09, (byte) 0xB8, /* 10      Usage (Eject)                      */
-                        (byte) 0x09, (byte) 0x65, /* 11      Usage (Snapshot)                   */
-
-                        (byte) 0x05, (byte) 0x01, /*        Usage Page (Generic Desktop)        */
-                        (byte) 0x09, (byte) 0x82, /* 12      Usage (System Sleep)               */
-                        (byte) 0x09, (byte) 0xA8, /* 13      Usage (System Hibernate)           */
-                        (byte) 0x09, (byte) 0x81, /* 14      Usage (System Power Down)          */
-                        (byte) 0x09, (byte) 0x8E, /* 15      Usage (System Cold Restart)        */
-                        (byte) 0x09, (byte) 0x8F, /* 16      Usage (System Warm Restart)        */
-
-                        (byte) 0x81, (byte) 0x02, /*        Input (Data, Variable, Absolute)    */
-//                (byte) 0x95, (byte) 0x00, /*        Report Count (1)                    */
-//                (byte) 0x81, (byte) 0x01, /*        Input (Constant)                    */
-
-                /*==================== Application Launcher Buttons ====================*/
-                        (byte) 0x05, (byte) 0x0C,              /* Usage Page (Consumer Devices) */
-                        (byte) 0x95, (byte) 0x01,              /* Report Count (1)              */
-                        (byte) 0x75, (byte) 0x10,              /* Report Size (16)              */
-                        (byte) 0x16, (byte) 0x81, (byte) 0x01, /* Logical Minimum (385)         */
-                        (byte) 0x26, (byte) 0xC7, (byte) 0x01, /* Logical Maximum (455)         */
-                        (byte) 0x05, (byte) 0x0C,              /* Usage Page (Consumer Devices) */
-                        (byte) 0x1a, (byte) 0x81, (byte) 0x01, /* Usage Minimum (385)           */
-                        (byte) 0x2a, (byte) 0xC7, (byte) 0x01, /* Usage Maximum (455)           */
-                        (byte) 0x81, (byte) 0x00,              /* Input (Data, Array)           */
-
-                /*==================== Application Control Buttons =====================*/
-                        (byte) 0x05, (byte) 0x0C,              /* Usage Page (Consumer Devices) */
-                        (byte) 0x95, (byte) 0x01,              /* Report Count (1)              */
-                        (byte) 0x75, (byte) 0x10,              /* Report Size (16)              */
-                        (byte) 0x16, (byte) 0x01, (byte) 0x02, /* Logical Minimum (385)         */
-                        (byte) 0x26, (byte) 0x9C, (byte) 0x02, /* Logical Maximum (455)         */
-                        (byte) 0x05, (byte) 0x0C,              /* Usage Page (Consumer Devices) */
-                        (byte) 0x1a, (byte) 0x01, (byte) 0x02, /* Usage Minimum (385)           */
-                        (byte) 0x2a, (byte) 0x9C, (byte) 0x02, /* Usage Maximum (455)           */
-                        (byte) 0x81, (byte) 0x00,              /* Input (Data, Array)           */
-                        (byte) 0xC0,              /*       End Collection                       */
-                } : new byte[]{};
-        final byte REPORT_MAP_KEYBOARD[] =
-                ((features & ReportField.REP_KEYBOARD) == ReportField.REP_KEYBOARD) ? new byte[]{
-                /*============================== Keyboard ==============================*/
-                        (byte) 0x05, (byte) 0x07, /*        Usage Page (Keyboard/Keypad)        */
-                        (byte) 0x15, (byte) 0x00, /*        Logical Minimum (0)                 */
-                        (byte) 0x25, (byte) 0x01, /*        Logical Maximum (1)                 */
-                        (byte) 0x75, (byte) 0x01, /*        Report Size (1)                     */
-                        (byte) 0x95, (byte) 0x08, /*        Report Count (8)                    */
-
-                        (byte) 0x09, (byte) 0xE0, /* 1       Usage (LeftControl)                */
-                        (byte) 0x09, (byte) 0xE1, /* 2       Usage (LeftShift)                  */
-                        (byte) 0x09, (byte) 0xE2, /* 3       Usage (LeftAlt)                    */
-                        (byte) 0x09, (byte) 0xE3, /* 4       Usage (LeftGUI)                    */
-                        (byte) 0x09, (byte) 0xE4, /* 5       Usage (RightControl)               */
-                        (byte) 0x09, (byte) 0xE5, /* 6       Usage (RightShift)                 */
-                        (byte) 0x09, (byte) 0xE6, /* 7       Usage (RightAlt)                   */
-                        (byte) 0x09, (byte) 0xE7, /* 8       Usage (RightGUI)                   */
-                        (byte) 0x81, (byte) 0x02, /*        Input (Data, Variable, Absolute)    */
-
-                        (byte) 0x05, (byte) 0x07, /*        Usage Page (Keyboard/Keypad)        */
-                        (byte) 0x95, (byte) 0x01, /*        Report Count (1)                    */
-                        (byte) 0x75, (byte) 0x08, /*        Report Size (8)                     */
-                        (byte) 0x15, (byte) 0x04, /*        Logical Minimum (4)                 */
-                        (byte) 0x25, (byte) 0xDF, /*        Logical Maximum (223)               */
-                        (byte) 0x05, (byte) 0x07, /*        Usage Page (Key codes)              */
-                        (byte) 0x19, (byte) 0x04, /*        Usage Minimum (4)                   */
-                        (byte) 0x29, (byte) 0xDF, /*        Usage Maximum (223)                 */
-                        (byte) 0x81, (byte) 0x00, /*        Input (Data, Array)                 */
-                } : new byte[]{};
-        final byte REPORT_MAP_MOUSE[] =
-                ((features & ReportField.REP_MOUSE) == ReportField.REP_MOUSE) ? new byte[]{
-                /*================================ Mouse ===============================*/
-                        (byte) 0x05, (byte) 0x01, /*        Usage Page (Generic Desktop)        */
-                        (byte) 0x09, (byte) 0x02, /*        Usage (Mouse)                       */
-                        (byte) 0xa1, (byte) 0x01, /*         Collection (Application)            */
-                        (byte) 0x85, (byte) 0x02,
-                        (byte) 0x09, (byte) 0x01, /*        Usage (Consumer Control)            */
-                        (byte) 0xa1, (byte) 0x00, /*        Collection (Physical)               */
-                        (byte) 0x05, (byte) 0x09, /*        Usage Page (Button)                 */
-                        (byte) 0x19, (byte) 0x01, /*        Usage Minimum (1)                   */
-                        (byte) 0x29, (byte) 0x05, /*        Usage Maximum (5)                   */
-                        (byte) 0x15, (byte) 0x00, /*        Logical Minimum (0)                 */
-                        (byte) 0x25, (byte) 0x01, /*        Logical Maximum (1)                 */
-                        (byte) 0x95, (byte) 0x05, /*        Report Count (5)                    */
-                        (byte) 0x75, (byte) 0x01, /*        Report Size (1)                     */
-                        (byte) 0x81, (byte) 0x02, /*        Input (Variable, Absolute)          */
-
-                        (byte) 0x95, (byte) 0x01, /*        Report Count (1)                    */
-                        (byte) 0x75, (byte) 0x03, /*        Report Size (3)                     */
-                        (byte) 0x81, (byte) 0x01, /*        Input (Constant)                    */
-
-                        (byte) 0x05, (byte) 0x01, /*        Usage Page (Generic Desktop)        */
-                        (byte) 0x09, (byte) 0x30, /*        Usage (X)                           */
-                        (byte) 0x09, (byte) 0x31, /*        Usage (Y)                           */
-                        (byte) 0x15, (byte) 0x81, /*        Logical Minimum (-127)              */
-                        (byte) 0x25, (byte) 0x7f, /*        Logical Maximum (127)               */
-                        (byte) 0x75, (byte) 0x08, /*        Report Size (8)                     */
-                        (byte) 0x95, (byte) 0x02, /*        Report Count (2)                    */
-                        (byte) 0x81, (byte) 0x06, /*        Input (Variable, Relative)          */
-
-                        (byte) 0x09, (byte) 0x38, /*        Usage (Wheel)                       */
-                        (byte) 0x15, (byte) 0x81, /*        Logical Minimum (-127)              */
-                        (byte) 0x25, (byte) 0x7f, /*        Logical Maximum (127)               */
-                        (byte) 0x75, (byte) 0x08, /*        Report Size (8)                     */
-                        (byte) 0x95, (byte) 0x01, /*        Report Count (1)                    */
-                        (byte) 0x81, (byte) 0x06, /*        Input (Variable, Relative)          */
-                        (byte) 0xC0,              /*       End Collection                       */
-                        (byte) 0xC0,              /*       End Collection                       */
-                } : new byte[]{};
-        final byte REPORT_MAP_END[] = {
-                (byte) 0xC0,              /*       End Collection                       */
-        };
-
-        int position = 0;
-        byte REPORT_MAP[];
-
-
-        if ((features & ReportField.REP_BASIC) == ReportField.REP_BASIC) {
-            REPORT_MAP = REPORT_MAP_BASIC;
-        } else {
-            REPORT_MAP = new byte[REPORT_MAP_START.length + REPORT_MAP_CONSUMER.length +
-                    REPORT_MAP_KEYBOARD.length + REPORT_MAP_MOUSE.length + REPORT_MAP_END.length];
-
-            System.arraycopy(REPORT_MAP_START, 0, REPORT_MAP, position, REPORT_MAP_START.length);
-            position += REPORT_MAP_START.length;
-            System.arraycopy(REPORT_MAP_CONSUMER, 0, REPORT_MAP, position, REPORT_MAP_CONSUMER.length);
-            position += REPORT_MAP_CONSUMER.length;
-            System.arraycopy(REPORT_MAP_KEYBOARD, 0, REPORT_MAP, position, REPORT_MAP_KEYBOARD.length);
-            position += REPORT_MAP_KEYBOARD.length;
-            System.arraycopy(REPORT_MAP_MOUSE, 0, REPORT_MAP, position, REPORT_MAP_MOUSE.length);
-            position += REPORT_MAP_MOUSE.length;
-            System.arraycopy(REPORT_MAP_END, 0, REPORT_MAP, position, REPORT_MAP_END.length);
-        }
-
+        final byte REPORT_MAP[] = ReportMap.build(features);
 
         // HID Service
         BluetoothGattService serviceHid = new BluetoothGattService(UUID.fromString(SERVICE_HID),
@@ -601,33 +501,140 @@ public class HidBleService extends Service {
 
         charHidControlPoint.setValue("\0".getBytes());
 
-        // Report characteristic
-        BluetoothGattCharacteristic charReport1 = new BluetoothGattCharacteristic(
-                UUID.fromString(CHAR_REPORT),
-                BluetoothGattCharacteristic.PROPERTY_READ |
-                        BluetoothGattCharacteristic.PROPERTY_NOTIFY, PERM_READ_WRITE);
+        serviceHid.addCharacteristic(charReportMap);
+        serviceHid.addCharacteristic(charHidInformation);
+        serviceHid.addCharacteristic(charHidControlPoint);
+
+        // Boot protocol characteristics - only for the features which have a boot format
+        for (InputReport report : InputReport.values()) {
+            bootCharacteristics[report.ordinal()] = null;
+        }
 
-        charReport1.setValue("\0\0".getBytes());
+        protocolModeCharacteristic = null;
 
-        /// Report Reference descriptor
-        BluetoothGattDescriptor descReportReference1 = new BluetoothGattDescriptor(
-                UUID.fromString(DESC_REPORT_REFERENCE), PERM_READ);
+        if (InputReport.INPUT_REPORT_KEYBOARD.length > 0 ||
+                InputReport.INPUT_REPORT_MOUSE.length > 0) {
+            // Protocol Mode characteristic - every connection starts in the report protocol
+            BluetoothGattCharacteristic charProtocolMode = new BluetoothGattCharacteristic(
+                    UUID.fromString(CHAR_PROTOCOL_MODE),
+                    BluetoothGattCharacteristic.PROPERTY_READ |
+                            BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE,
+                    PERM_READ_WRITE);
 
-        descReportReference1.setValue("\2\1".getBytes());
+            charProtocolMode.setValue(new byte[]{BootReport.PROTOCOL_MODE_REPORT});
+            protocolModeCharacteristic = charProtocolMode;
+            serviceHid.addCharacteristic(charProtocolMode);
+        }
 
-        /// Client Characteristic Configuration descriptor
-        BluetoothGattDescriptor descCCC1 = new BluetoothGattDescriptor(
-                UUID.fromString(DESC_CCC), PERM_READ_WRITE);
+        if (InputReport.INPUT_REPORT_KEYBOARD.length > 0) {
+            // Boot Keyboard Input Report characteristic
+            BluetoothGattCharacteristic charBootKeyboardInput = new BluetoothGattCharacteristic(
+                    UUID.fromString(CHAR_BOOT_KEYBOARD_INPUT),
+                    BluetoothGattCharacteristic.PROPERTY_READ |
+                            BluetoothGattCharacteristic.PROPERTY_NOTIFY, PERM_READ_WRITE);
 
-        descCCC1.setValue("\0\0".getBytes());
+            charBootKeyboardInput.setValue(new byte[BootReport.BOOT_KEYBOARD_LENGTH]);
 
-        charReport1.addDescriptor(descReportReference1);
-        charReport1.addDescriptor(descCCC1);
+            /// Client Characteristic Configuration descriptor
+            BluetoothGattDescriptor descBootKeyboardCCC = new BluetoothGattDescriptor(
+                    UUID.fromString(DESC_CCC), PERM_READ_WRITE);
+
+            descBootKeyboardCCC.setValue("\0\0".getBytes());
+            charBootKeyboardInput.addDescriptor(descBootKeyboardCCC);
+
+            // Boot Keyboard Output Report characteristic - LEDs, accepted and ignored
+            BluetoothGattCharacteristic charBootKeyboardOutput = new BluetoothGattCharacteristic(
+                    UUID.fromString(CHAR_BOOT_KEYBOARD_OUTPUT),
+                    BluetoothGattCharacteristic.PROPERTY_READ |
+                            BluetoothGattCharacteristic.PROPERTY_WRITE |
+                            BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE,
+                    PERM_READ_WRITE);
+
+            charBootKeyboardOutput.setValue("\0".getBytes());
+
+            bootCharacteristics[InputReport.INPUT_REPORT_KEYBOARD.ordinal()] =
+                    charBootKeyboardInput;
+            serviceHid.addCharacteristic(charBootKeyboardInput);
+            serviceHid.addCharacteristic(charBootKeyboardOutput);
+        }
+
+        if (InputReport.INPUT_REPORT_MOUSE.length > 0) {
+            // Boot Mouse Input Report characteristic
+            BluetoothGattCharacteristic charBootMouseInput = new BluetoothGattCharacteristic(
+                    UUID.fromString(CHAR_BOOT_MOUSE_INPUT),
+                    BluetoothGattCharacteristic.PROPERTY_READ |
+                            BluetoothGattCharacteristic.PROPERTY_NOTIFY, PERM_READ_WRITE);
+
+            charBootMouseInput.setValue(new byte[BootReport.BOOT_MOUSE_LENGTH]);
+
+            /// Client Characteristic Configuration descriptor
+            BluetoothGattDescriptor descBootMouseCCC = new BluetoothGattDescriptor(
+                    UUID.fromString(DESC_CCC), PERM_READ_WRITE);
+
+            descBootMouseCCC.setValue("\0\0".getBytes());
+            charBootMouseInput.addDescriptor(descBootMouseCCC);
+
+            bootCharacteristics[InputReport.INPUT_REPORT_MOUSE.ordinal()] = charBootMouseInput;
+            serviceHid.addCharacteristic(charBootMouseInput);
+        }
+
+        // Report characteristic of every present input report
+        for (InputReport report : InputReport.values()) {
+            reportCharacteristics[report.ordinal()] = null;
+            featureCharacteristics[report.ordinal()] = null;
+
+            if (report.length == 0) {
+                continue;
+            }
+
+            BluetoothGattCharacteristic charReport = new BluetoothGattCharacteristic(
+                    UUID.fromString(CHAR_REPORT),
+                    BluetoothGattCharacteristic.PROPERTY_READ |
+                            BluetoothGattCharacteristic.PROPERTY_NOTIFY, PERM_READ_WRITE);
+
+            charReport.setValue(new byte[report.length]);
+
+            /// Report Reference descriptor - Report ID, Input report
+            BluetoothGattDescriptor descReportReference = new BluetoothGattDescriptor(
+                    UUID.fromString(DESC_REPORT_REFERENCE), PERM_READ);
+
+            descReportReference.setValue(new byte[]{(byte) report.report_id, 0x01});
+
+            /// Client Characteristic Configuration descriptor
+            BluetoothGattDescriptor descCCC = new BluetoothGattDescriptor(
+                    UUID.fromString(DESC_CCC), PERM_READ_WRITE);
+
+            descCCC.setValue("\0\0".getBytes());
+
+            charReport.addDescriptor(descReportReference);
+            charReport.addDescriptor(descCCC);
+            reportCharacteristics[report.ordinal()] = charReport;
+            serviceHid.addCharacteristic(charReport);
+
+            if (report.feature_length == 0) {
+                continue;
+            }
+
+            // Feature Report characteristic - e.g. Resolution Multiplier of the mouse, Contact
+            // Count Maximum of the digitizer
+            BluetoothGattCharacteristic charFeature = new BluetoothGattCharacteristic(
+                    UUID.fromString(CHAR_REPORT),
+                    BluetoothGattCharacteristic.PROPERTY_READ |
+                            BluetoothGattCharacteristic.PROPERTY_WRITE, PERM_READ_WRITE);
+
+            charFeature.setValue(ReportMap.featureReport(report));
+
+            /// Report Reference descriptor - Report ID, Feature report
+            BluetoothGattDescriptor descFeatureReference = new BluetoothGattDescriptor(
+                    UUID.fromString(DESC_REPORT_REFERENCE), PERM_READ);
+
+            descFeatureReference.setValue(new byte[]{(byte) report.report_id, 0x03});
+
+            charFeature.addDescriptor(descFeatureReference);
+            featureCharacteristics[report.ordinal()] = charFeature;
+            serviceHid.addCharacteristic(charFeature);
+        }
 
-        serviceHid.addCharacteristic(charReportMap);
-        serviceHid.addCharacteristic(charHidInformation);
-        serviceHid.addCharacteristic(charHidControlPoint);
-        serviceHid.addCharacteristic(charReport1);
         gattServer.addService(serviceHid);
         ////////////////////////////////////////////////////////////////////////////////////////////
         // Device Information Service
@@ -659,27 +666,66 @@ public class HidBleService extends Service {
         charBatteryLevel.setValue(new byte[]{readBatteryLevel()});
         serviceBAS.addCharacteristic(charBatteryLevel);
         gattServer.addService(serviceBAS);
+        batteryLevelCharacteristic = charBatteryLevel;
+
+        readServer.clear();
+        cacheValues(serviceHid);
+        cacheValues(serviceDIS);
+        cacheValues(serviceBAS);
     }
 
-    private void gattServerCbInit() {
-        mGattServerCallback = new BluetoothGattServerCallback() {
-            private final int DEFAULT_MTU = 23;
-            private int currentMtu = DEFAULT_MTU;
+    /*
+     * Serve reads of the service's attributes from snapshots. Input reports (notified
+     * characteristics) change with every notification and are read live instead.
+     */
+    private void cacheValues(BluetoothGattService service) {
+        for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+            if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) == 0) {
+                readServer.setValue(characteristic, characteristic.getValue());
+            }
 
+            for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
+                readServer.setValue(descriptor, descriptor.getValue());
+            }
+        }
+    }
+
+    private boolean isFeatureCharacteristic(BluetoothGattCharacteristic characteristic) {
+        for (BluetoothGattCharacteristic feature : featureCharacteristics) {
+            if (feature != null && feature == characteristic) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void sendReadResponse(BluetoothDevice device, int requestId, int offset,
+                                  byte[] value) {
+        byte[] part = readServer.slice(device, value, offset);
+
+        if (part == null) {
+            gattServer.sendResponse(device, requestId, BluetoothGatt.GATT_INVALID_OFFSET, offset,
+                    null);
+            return;
+        }
+
+        gattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, part);
+    }
+
+    /* generation - of the transmitter, see HidTransmitter.reset() */
+    private void gattServerCbInit(final int generation) {
+        mGattServerCallback = new BluetoothGattServerCallback() {
             @Override
             public void onConnectionStateChange(final BluetoothDevice device, int status, int newState) {
                 Log.e("BLE", "onConnectionStateChange " + device.toString() + " " + status + " " + newState);
 
                 if (newState == STATE_CONNECTED) {
-                    currentMtu = DEFAULT_MTU;
+                    readServer.onConnected(device);
 
-                    if (!devices.contains(device)) {
-                        devices.add(device);
-                    }
+                    devices.addIfAbsent(device);
 
-                    if (devices.size() == 1) {
-                        notificationPossible = true;
-                    }
+                    transmitter.onConnected(device);
 
                     BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
                     BluetoothLeAdvertiser advertiser = bluetoothAdapter.getBluetoothLeAdvertiser();
@@ -694,15 +740,12 @@ public class HidBleService extends Service {
                         }
                     }
                 } else if (newState == STATE_DISCONNECTED) {
-                    if (devices.contains(device)) {
-                        // If some notification waiting for this device then they will be removed in
-                        // proper task
-                        devices.remove(device);
-                    }
+                    // If some notification waiting for this device then they will be removed in
+                    // proper task
+                    devices.remove(device);
 
-                    if (devices.size() == 0) {
-                        notificationPossible = false;
-                    }
+                    transmitter.onDisconnected(device);
+                    readServer.onDisconnected(device);
                 }
 
                 if (mainActivity != null) {
@@ -714,27 +757,19 @@ public class HidBleService extends Service {
             public void onCharacteristicReadRequest(BluetoothDevice device, int requestId, int offset,
                                                     BluetoothGattCharacteristic characteristic) {
                 super.onCharacteristicReadRequest(device, requestId, offset, characteristic);
-                int charLength = characteristic.getValue().length;
-                int partLength = (currentMtu > charLength - offset) ? charLength - offset : currentMtu;
-                byte bytes[] = new byte[partLength];
-
-                if (Objects.equals(characteristic.getUuid().toString(), CHAR_BATTERY_LEVEL)) {
-                    characteristic.setValue(new byte[]{readBatteryLevel()});
-                }
+                byte[] value = readServer.getValue(device, characteristic, offset);
 
-                for (int i = 0; i < partLength; i++) {
-                    bytes[i] = characteristic.getValue()[i + offset];
+                if (value == null) {
+                    // Input report - its value changes with every notification
+                    value = characteristic.getValue();
                 }
 
-                gattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, 0, bytes);
-
-                Log.e("BLE", "onCharacteristicReadRequest " + characteristic.getUuid().toString() +
-                        " offset " + offset + " " + new String(bytes));
+                sendReadResponse(device, requestId, offset, value);
             }
 
             @Override
             public void onMtuChanged(BluetoothDevice device, int mtu) {
-                currentMtu = mtu;
+                readServer.onMtuChanged(device, mtu);
             }
 
             @Override
@@ -745,6 +780,7 @@ public class HidBleService extends Service {
                 Log.e("BLE", "onDescriptorWriteRequest " + descriptor.getUuid().toString() + "value"
                         + value[0] + value[1]);
                 descriptor.setValue(value);
+                readServer.updateValue(descriptor, value);
                 gattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, 0, value);
             }
 
@@ -755,34 +791,47 @@ public class HidBleService extends Service {
                                                      int offset, byte[] value) {
                 Log.e("BLE", "onCharacteristicWriteRequest " + characteristic.getUuid().toString() +
                         " offset " + offset);
-                characteristic.setValue(value);
+
+                if (characteristic == protocolModeCharacteristic && value.length == 1) {
+                    transmitter.setBootProtocol(device,
+                            value[0] == BootReport.PROTOCOL_MODE_BOOT);
+                }
+
+                if (characteristic ==
+                        featureCharacteristics[InputReport.INPUT_REPORT_MOUSE.ordinal()] &&
+                        value.length == 1) {
+                    transmitter.setResolutionMultiplier(device, value[0]);
+                }
+
+                if (characteristic == protocolModeCharacteristic ||
+                        isFeatureCharacteristic(characteristic)) {
+                    // Selected by every host for itself, like the transmitter keeps it
+                    readServer.setHostValue(device, characteristic, value);
+                } else {
+                    characteristic.setValue(value);
+                    readServer.updateValue(characteristic, value);
+                }
+
                 gattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, 0, value);
             }
 
             @Override
             public void onDescriptorReadRequest(BluetoothDevice device, int requestId,
                                                 int offset, BluetoothGattDescriptor descriptor) {
-                Log.e("BLE", "onDescriptorReadRequest " + descriptor.getUuid().toString());
-                gattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, 0, descriptor.getValue());
+                byte[] value = readServer.getValue(device, descriptor, offset);
+
+                sendReadResponse(device, requestId, offset,
+                        value != null ? value : descriptor.getValue());
             }
 
             @Override
             public void onNotificationSent(BluetoothDevice device, int status) {
-                Log.e("BLE", "onNotificationSent - left: " + pendingNotifications.size());
-                if (pendingNotifications.size() > 0) {
-                    NotificationData toSend = pendingNotifications.remove(0);
-                    toSend.characteristic.setValue(toSend.value);
-                    gattServer.notifyCharacteristicChanged(toSend.device, toSend.characteristic,
-                            toSend.responseNeeded);
-                    notificationPossible = false;
-                } else {
-                    notificationPossible = true;
-                }
+                transmitter.onNotificationSent(device, generation);
             }
         };
     }
 
-    public ArrayList<BluetoothDevice> getDevices() {
+    public List<BluetoothDevice> getDevices() {
         return devices;
     }
 
@@ -825,12 +874,27 @@ public class HidBleService extends Service {
             features |= ReportField.REP_BASIC;
         }
 
+        if (ApplicationConfiguration.getConfigurationField(getApplicationContext(),
+                ApplicationConfiguration.NKRO_FEAT)) {
+            features |= ReportField.REP_KEYBOARD_NKRO;
+        }
+
+        if (ApplicationConfiguration.getConfigurationField(getApplicationContext(),
+                ApplicationConfiguration.HIRES_MOUSE_FEAT)) {
+            features |= ReportField.REP_MOUSE_HIRES;
+        }
+
+        if (ApplicationConfiguration.getConfigurationField(getApplicationContext(),
+                ApplicationConfiguration.DIGITIZER_FEAT)) {
+            features |= ReportField.REP_DIGITIZER;
+        }
+
         ReportField.updateValues(features);
-        gattServerCbInit();
+        // Completions still coming from the previous server must not return credits of this one
+        gattServerCbInit(transmitter.reset());
         mManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
         gattServer = mManager.openGattServer(getBaseContext(), mGattServerCallback);
         createGattDatabase(gattServer, SecurityLevel.SECURITY_LEVEL_2.ordinal(), features);
-        pendingNotifications.clear();
         startAdvertising();
     }
 
@@ -838,7 +902,29 @@ public class HidBleService extends Service {
     public void onCreate() {
         super.onCreate();
 
+        transmitter.start();
         initializeLE();
+        registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+    }
+
+    @Override
+    public void onDestroy() {
+        // Interrupted typers cancel themselves and release their keys before the transmitter
+        // stops. A typer blocked reading its text may not notice, so the wait is bounded.
+        typingExecutor.shutdownNow();
+
+        try {
+            if (!typingExecutor.awaitTermination(TYPING_STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.e("BLE", "Typer did not stop - keys may stay held");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        transmitter.stop();
+        unregisterReceiver(batteryReceiver);
+
+        super.onDestroy();
     }
 
     @Override
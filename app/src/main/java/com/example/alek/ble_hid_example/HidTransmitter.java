@@ -0,0 +1,954 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * HID transmit engine.
+ *
+ * Field updates may be queued from any thread (UI, binder) - enqueueing is a single lock-free
+ * offer into a preallocated ring followed by an unpark of the owner thread. Everything else
+ * (report states, host queues, in-flight state) is touched by the owner thread only.
+ *
+ * Every update is applied to the report state of its host and the whole report is queued only
+ * if something really changed, so untouched fields keep their values and repeated values cost
+ * nothing. Each feature has its own input report (InputReport) and its own state, so a report
+ * carries only the fields of the feature which changed.
+ *
+ * Every connected host has its own queue and its own in-flight credit. A report for a host
+ * leaves only when the previous one for the same host has been confirmed by
+ * onNotificationSent, so a congested host never holds back the others. Hosts with credit
+ * are served round-robin, and the thread sleeps whenever no host can send. Completions are
+ * tagged with the generation of the GATT server, so one which arrives after reset() cannot
+ * return a credit for a notification of the old server.
+ *
+ * Reports of every host wait in two lanes. State transitions (keys, buttons, controls) go
+ * ahead of continuous motion, so a click never waits behind a flood of X/Y reports. Motion
+ * queued before a mouse transition is folded into it as far as it fits, so the click still lands
+ * where the cursor was meant to be. Motion queued after it stays behind it - it is neither
+ * folded into the transition nor merged into motion queued ahead of it - so a drag starts
+ * after the press and ends before the release. After MOTION_SHARE state reports in a row one
+ * motion report goes out, so motion cannot starve either. A transition queued with
+ * updateAfterMotion() does not go ahead at all: it waits for the motion queued before it, and
+ * later motion is not merged into that motion - e.g. the Ctrl of a pinch zoom, which gives the
+ * wheel reports around it their meaning. A motion report takes the buttons
+ * and keys of the last report sent when it leaves - it never reverts a transition which
+ * overtook it.
+ *
+ * While a host is backlogged, relative motion (X/Y/wheel) queued for it is merged into the
+ * last pending motion report as long as the sum fits the range of the axis, so the cursor
+ * does not replay stale steps after the finger stopped. The total displacement is kept exact.
+ *
+ * Queued reports are taken from a pool and go back to it once the stack confirmed them, so
+ * the steady state does not allocate at all.
+ *
+ * Motion in host queues is bounded. Motion older than ReportField.max_age_ms is dropped instead
+ * of being sent late, and a full queue gives up its oldest motion report. State reports are
+ * never dropped - a lost key release would leave the key stuck and a lost press would lose a
+ * typed character. A queue full of them grows past HOST_QUEUE_CAPACITY instead, and only new
+ * motion is refused meanwhile; bulk producers keep it short through getBacklog(). Digitizer
+ * contacts which only moved update the positions of the digitizer report still queued, so a
+ * finger sliding faster than the link cannot grow the queue; touches and lifts are kept.
+ *
+ * A host may switch to the boot protocol (Protocol Mode characteristic). Its reports are still
+ * composed, merged and queued in the report protocol format and converted to the fixed boot
+ * format (BootReport) when they leave; reports without a boot format are not queued for it.
+ * High resolution motion beyond the 8 bits of the boot mouse is split across several reports,
+ * and a button transition waits until the motion queued before it has left.
+ *
+ * The high resolution wheel and pan count in 1 / WHEEL_RESOLUTION detents. Until a host
+ * enables their Resolution Multiplier, its updates are converted to whole detents when they
+ * arrive and the fraction is kept for the next one.
+ *
+ * A fling (fling()) keeps scrolling a host after the fingers lifted. It lives on this thread, so
+ * the UI posts one request instead of a report per frame: whenever the host has credit and
+ * nothing else waiting, the distance of an exponentially decaying wheel / pan speed covered
+ * since the previous step is queued as an ordinary update. Steps are therefore paced by the
+ * link, never closer than FLING_STEP_MS, and a slow link gets fewer but larger steps. The
+ * fling ends once less than half a unit is left, or right away on cancelFling().
+ *
+ * Every report carries the time of its source event, of its enqueueing and of the hand-over to
+ * the stack. When the stack confirms it, the stages between them are recorded in fixed size
+ * histograms (LatencyStats) per host and report type. Stats outlive the connection of the host.
+ *
+ * Bulk producers (text typing) throttle themselves with getBacklog() instead of filling the
+ * host queues, so they never run into the drop policy above.
+ */
+class HidTransmitter<D> implements Runnable {
+    /* Time source of enqueue stamps and expiry, System.nanoTime() unless simulated */
+    interface Clock {
+        long nanoTime();
+    }
+
+    final static public Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /* Link to the hosts; D identifies a host (BluetoothDevice on Android) */
+    interface Sink<D> {
+        /* Returns false if the stack refused the notification - no completion will follow */
+        boolean send(NotificationData<D> nd);
+    }
+
+    /* Notifications which may be outstanding for a single host */
+    private static final int HOST_CREDITS = 1;
+    private static final int QUEUE_CAPACITY = 1024;
+    /* Reports which may wait for a single host, both lanes together - unless all are state */
+    private static final int HOST_QUEUE_CAPACITY = 64;
+    /* State reports sent in a row before waiting motion gets its turn */
+    private static final int MOTION_SHARE = 4;
+    /* Time constant of the fling speed decay */
+    private static final int FLING_TAU_MS = 400;
+    /* Shortest time between two fling steps of a host, about one connection interval */
+    private static final int FLING_STEP_MS = 8;
+
+    private final Sink<D> sink;
+    private final Clock clock;
+    /* Multi-producer intake - owner thread is the only consumer */
+    private final UpdateQueue<D> incoming = new UpdateQueue<>(QUEUE_CAPACITY);
+    private final ConcurrentLinkedQueue<Runnable> control = new ConcurrentLinkedQueue<>();
+    /* Owner thread only */
+    private final HashMap<D, HostQueue<D>> hostMap = new HashMap<>();
+    private final ArrayList<HostQueue<D>> hosts = new ArrayList<>();
+    /* Free reports, one pool per InputReport as their lengths differ */
+    private final ArrayList<ArrayDeque<NotificationData<D>>> pools = new ArrayList<>();
+    /* Written by the owner thread only */
+    private final ConcurrentHashMap<D, LatencyStats> latencyStats = new ConcurrentHashMap<>();
+    private int nextHost = 0;
+    private volatile boolean running;
+    private volatile Thread thread = null;
+    /* Written by the owner thread only */
+    private volatile long droppedStale = 0;
+    private volatile long droppedOverflow = 0;
+    /* Reports waiting for or sent to the most loaded host, written by the owner thread only */
+    private volatile int hostBacklog = 0;
+    /* Some host has an active fling - the owner thread wakes up for its steps */
+    private boolean flinging = false;
+    /* Bumped by every reset(), completions carry the generation they belong to */
+    private final AtomicInteger generation = new AtomicInteger();
+    /* Owner thread only - completions of any other generation are stale */
+    private int currentGeneration = 0;
+
+    HidTransmitter(Sink<D> sink) {
+        this(sink, SYSTEM_CLOCK);
+    }
+
+    HidTransmitter(Sink<D> sink, Clock clock) {
+        this.sink = sink;
+        this.clock = clock;
+
+        for (int i = 0; i < InputReport.values().length; i++) {
+            pools.add(new ArrayDeque<NotificationData<D>>());
+        }
+    }
+
+    void start() {
+        if (thread != null) {
+            return;
+        }
+
+        running = true;
+        thread = new Thread(this, "HidTransmitter");
+        thread.start();
+    }
+
+    void stop() {
+        if (thread == null) {
+            return;
+        }
+
+        running = false;
+        LockSupport.unpark(thread);
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        thread = null;
+    }
+
+    /* Called from any thread - bits selected by mask are replaced in the host's report */
+    void update(D device, ReportField rf, long bits, long mask) {
+        long now = clock.nanoTime();
+
+        offer(UpdateQueue.UPDATE, device, rf, bits, mask, now, now);
+    }
+
+    /* As above, eventTime is the time of the source event on the transmitter's clock */
+    void update(D device, ReportField rf, long bits, long mask, long eventTime) {
+        offer(UpdateQueue.UPDATE, device, rf, bits, mask, eventTime, clock.nanoTime());
+    }
+
+    /* As above, but a state report does not overtake motion queued for the host before it */
+    void updateAfterMotion(D device, ReportField rf, long bits, long mask, long eventTime) {
+        offer(UpdateQueue.UPDATE_AFTER_MOTION, device, rf, bits, mask, eventTime,
+                clock.nanoTime());
+    }
+
+    /*
+     * Called from the GATT callback when the device is ready for the next notification;
+     * generation is the value reset() returned before the callback's server was opened
+     */
+    void onNotificationSent(D device, int generation) {
+        offer(UpdateQueue.SENT, device, null, generation, 0, 0, clock.nanoTime());
+    }
+
+    /* As above, for callers which never reset the transmitter (simulation) */
+    void onNotificationSent(D device) {
+        onNotificationSent(device, generation.get());
+    }
+
+    /* Latency stats of every host seen so far; may be read from any thread */
+    Map<D, LatencyStats> getLatencyStats() {
+        return Collections.unmodifiableMap(latencyStats);
+    }
+
+    void clearLatencyStats() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                for (LatencyStats stats : latencyStats.values()) {
+                    stats.clear();
+                }
+            }
+        });
+    }
+
+    /*
+     * Reports not confirmed by the most loaded host yet, including updates which the owner
+     * thread has not picked up. May be read from any thread.
+     */
+    int getBacklog() {
+        return incoming.size() + hostBacklog;
+    }
+
+    /* Motion reports which got too old while waiting for the link */
+    long getDroppedStale() {
+        return droppedStale;
+    }
+
+    /* Motion reports dropped because the host queue was full */
+    long getDroppedOverflow() {
+        return droppedOverflow;
+    }
+
+    /* Protocol selected by the host, the report protocol is the default after connection */
+    void setBootProtocol(final D device, final boolean boot) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                HostQueue<D> host = hostMap.get(device);
+
+                if (host != null) {
+                    host.boot = boot;
+                }
+            }
+        });
+    }
+
+    /*
+     * Resolution Multiplier feature report written by the host, see ReportMap.MULTIPLIER_*.
+     * Both multipliers are off after connection.
+     */
+    void setResolutionMultiplier(final D device, final int multiplier) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                HostQueue<D> host = hostMap.get(device);
+
+                if (host != null) {
+                    host.hiresWheel = (multiplier & ReportMap.MULTIPLIER_WHEEL) != 0;
+                    host.hiresPan = (multiplier & ReportMap.MULTIPLIER_PAN) != 0;
+                }
+            }
+        });
+    }
+
+    /*
+     * Keep scrolling the host: wheelRate / panRate are the speeds in units of the fields per
+     * second when the fingers lifted, pan may be null. Replaces a fling already running.
+     */
+    void fling(final D device, final ReportField wheel, final ReportField pan,
+               final float wheelRate, final float panRate) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                HostQueue<D> host = hostMap.get(device);
+
+                if (host != null) {
+                    host.fling.start(wheel, pan, wheelRate, panRate, clock.nanoTime());
+                    flinging = true;
+                }
+            }
+        });
+    }
+
+    /* Stop the flings of all hosts, e.g. when a finger touches the pad again */
+    void cancelFling() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                for (HostQueue<D> host : hosts) {
+                    host.fling.active = false;
+                }
+            }
+        });
+    }
+
+    void onConnected(final D device) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                HostQueue<D> known = hostMap.get(device);
+
+                if (known != null) {
+                    // Connected again without a disconnection - defaults of a new connection
+                    known.boot = false;
+                    known.hiresWheel = false;
+                    known.hiresPan = false;
+                } else {
+                    HostQueue<D> host = new HostQueue<>(device);
+                    LatencyStats stats = latencyStats.get(device);
+
+                    if (stats == null) {
+                        stats = new LatencyStats();
+                        latencyStats.put(device, stats);
+                    }
+
+                    host.stats = stats;
+
+                    hostMap.put(device, host);
+                    hosts.add(host);
+                }
+            }
+        });
+    }
+
+    /* Drop everything queued for the device; its completion may never arrive */
+    void onDisconnected(final D device) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                HostQueue<D> host = hostMap.remove(device);
+
+                if (host != null) {
+                    hosts.remove(host);
+                    recycleAll(host.stateLane);
+                    recycleAll(host.motionLane);
+                    recycleAll(host.inFlight);
+                }
+            }
+        });
+    }
+
+    /*
+     * Drop all queued reports and forget the in-flight ones, e.g. after the database restart.
+     * Returns the new generation; completions still on their way from before are ignored.
+     */
+    int reset() {
+        final int next = generation.incrementAndGet();
+
+        post(new Runnable() {
+            @Override
+            public void run() {
+                currentGeneration = next;
+
+                /* Report layout may have changed as well - buffers of old length are dropped */
+                for (ArrayDeque<NotificationData<D>> pool : pools) {
+                    pool.clear();
+                }
+
+                for (HostQueue<D> host : hosts) {
+                    recycleAll(host.stateLane);
+                    recycleAll(host.motionLane);
+                    recycleAll(host.inFlight);
+                    host.fling.active = false;
+                    host.createReports();
+                }
+            }
+        });
+
+        return next;
+    }
+
+    private void offer(int kind, D device, ReportField rf, long bits, long mask,
+                       long eventTime, long time) {
+        while (!incoming.offer(kind, device, rf, bits, mask, eventTime, time)) {
+            // Owner thread is behind - let it drain the ring
+            LockSupport.unpark(thread);
+            Thread.yield();
+        }
+
+        LockSupport.unpark(thread);
+    }
+
+    private void post(Runnable r) {
+        control.offer(r);
+        LockSupport.unpark(thread);
+    }
+
+    private NotificationData<D> obtain(D device, ReportField rf, long eventTime, long time) {
+        NotificationData<D> nd = pools.get(rf.report.ordinal()).poll();
+
+        if (nd == null) {
+            nd = new NotificationData<>(rf.report.length, BootReport.length(rf.report));
+        }
+
+        nd.device = device;
+        nd.field = rf;
+        nd.afterMotion = false;
+        nd.eventTime = eventTime;
+        nd.enqueueTime = time;
+        return nd;
+    }
+
+    private void recycle(NotificationData<D> nd) {
+        if (nd.value.length == nd.field.report.length) {
+            nd.device = null;
+            pools.get(nd.field.report.ordinal()).add(nd);
+        }
+    }
+
+    private void recycleAll(ArrayDeque<NotificationData<D>> queue) {
+        NotificationData<D> nd;
+
+        while ((nd = queue.poll()) != null) {
+            recycle(nd);
+        }
+    }
+
+    private static boolean isExpired(NotificationData<?> nd, long now) {
+        return nd.field.max_age_ms > 0 &&
+                now - nd.enqueueTime > nd.field.max_age_ms * 1000000L;
+    }
+
+    /* Make room for one more report, false if nd itself should be dropped; only motion goes */
+    private boolean makeRoom(HostQueue<D> host, NotificationData<D> nd) {
+        NotificationData<D> victim;
+
+        if (host.stateLane.size() + host.motionLane.size() < HOST_QUEUE_CAPACITY) {
+            return true;
+        }
+
+        victim = host.motionLane.poll();
+
+        if (victim == null) {
+            if (!nd.field.relative) {
+                // Nothing but state waiting - the state lane grows rather than losing a key
+                return true;
+            }
+
+            droppedOverflow++;
+            return false;
+        }
+
+        droppedOverflow++;
+        recycle(victim);
+        return true;
+    }
+
+    private void dropExpired(HostQueue<D> host, long now) {
+        NotificationData<D> nd;
+
+        while ((nd = host.motionLane.peek()) != null && isExpired(nd, now)) {
+            host.motionLane.poll();
+            recycle(nd);
+            droppedStale++;
+        }
+    }
+
+    private static int clamp(int value, int limit) {
+        return value > limit ? limit : (value < -limit ? -limit : value);
+    }
+
+    /* Move as much of the axis delta from nd to tail as fits, true if something is left */
+    private static boolean mergeAxis(NotificationData<?> tail, NotificationData<?> nd,
+                                     ReportField axis) {
+        if (axis.byte_offset < 0) {
+            return false;
+        }
+
+        int sum = axis.getRelative(tail.value) + axis.getRelative(nd.value);
+        int merged = clamp(sum, axis.relativeLimit());
+
+        axis.setRelative(tail.value, merged);
+        axis.setRelative(nd.value, sum - merged);
+        return sum != merged;
+    }
+
+    /* Whole detents of a wheel update for a host without its Resolution Multiplier */
+    private static int toDetents(int value, int[] rest, int axis) {
+        int detents;
+
+        rest[axis] += value;
+        detents = rest[axis] / ReportField.WHEEL_RESOLUTION;
+        rest[axis] -= detents * ReportField.WHEEL_RESOLUTION;
+        return detents;
+    }
+
+    /*
+     * Add relative axes of nd to tail. Whatever does not fit stays in nd, which then has to be
+     * sent as well. Returns true if nd was merged completely.
+     */
+    private static boolean coalesce(NotificationData<?> tail, NotificationData<?> nd) {
+        boolean rest = false;
+
+        if (tail.field.report != nd.field.report) {
+            return false;
+        }
+
+        rest |= mergeAxis(tail, nd, ReportField.REPORT_FIELD_MOUSE_X);
+        rest |= mergeAxis(tail, nd, ReportField.REPORT_FIELD_MOUSE_Y);
+        rest |= mergeAxis(tail, nd, ReportField.REPORT_FIELD_MOUSE_SCROLL);
+        rest |= mergeAxis(tail, nd, ReportField.REPORT_FIELD_MOUSE_HIRES_X);
+        rest |= mergeAxis(tail, nd, ReportField.REPORT_FIELD_MOUSE_HIRES_Y);
+        rest |= mergeAxis(tail, nd, ReportField.REPORT_FIELD_MOUSE_HIRES_SCROLL);
+        rest |= mergeAxis(tail, nd, ReportField.REPORT_FIELD_MOUSE_HIRES_PAN);
+
+        return !rest;
+    }
+
+    private void onUpdate(UpdateQueue.Entry<D> e) {
+        HostQueue<D> host = hostMap.get(e.device);
+
+        /* Device could disconnect in the mean time */
+        if (host == null) {
+            return;
+        }
+
+        if (e.kind == UpdateQueue.SENT) {
+            NotificationData<D> nd;
+
+            // Confirms a notification of the server before the last reset, not an in-flight one
+            if (e.bits != currentGeneration) {
+                return;
+            }
+
+            nd = host.inFlight.poll();
+
+            if (nd != null) {
+                host.stats.record(nd.field, nd.eventTime, nd.enqueueTime, nd.notifyTime, e.time);
+                recycle(nd);
+            }
+
+            return;
+        }
+
+        apply(host, e.field, e.bits, e.mask, e.eventTime, e.time,
+                e.kind == UpdateQueue.UPDATE_AFTER_MOTION);
+    }
+
+    /* Update the report state of the host and queue the report if it changed */
+    private void apply(HostQueue<D> host, ReportField rf, long bits, long mask, long eventTime,
+                       long time, boolean afterMotion) {
+        ReportState state = host.states[rf.report.ordinal()];
+
+        if (rf == ReportField.REPORT_FIELD_MOUSE_HIRES_SCROLL && !host.hiresWheel) {
+            bits = toDetents((short) bits, host.wheelRest, 0);
+        } else if (rf == ReportField.REPORT_FIELD_MOUSE_HIRES_PAN && !host.hiresPan) {
+            bits = toDetents((short) bits, host.wheelRest, 1);
+        }
+
+        // State is kept even if the boot protocol cannot carry it, for the switch back
+        if (!state.update(rf, bits, mask) || (host.boot && BootReport.length(rf.report) == 0)) {
+            return;
+        }
+
+        NotificationData<D> nd = obtain(host.device, rf, eventTime, time);
+        ArrayDeque<NotificationData<D>> lane = nd.field.relative ? host.motionLane : host.stateLane;
+        NotificationData<D> tail = host.motionLane.peekLast();
+
+        state.snapshot(nd.value);
+
+        if (!nd.field.relative) {
+            host.stateTime[rf.report.ordinal()] = time;
+
+            if (afterMotion) {
+                nd.afterMotion = true;
+                host.afterMotionTime = time;
+            }
+        }
+
+        // Contacts which only moved replace the positions of the digitizer report still queued
+        if (rf.report == InputReport.INPUT_REPORT_DIGITIZER && host.contacts != null &&
+                DigitizerReport.sameContacts(host.contacts.value, nd.value)) {
+            System.arraycopy(nd.value, 0, host.contacts.value, 0, nd.value.length);
+            recycle(nd);
+            return;
+        }
+
+        if (rf.report == InputReport.INPUT_REPORT_DIGITIZER) {
+            host.contacts = nd;
+        }
+
+        // Fresh motion is not merged into a report which is about to be dropped as stale, nor
+        // into one queued ahead of a transition of the same report which came in meanwhile, nor
+        // ahead of one which waits for the motion before it
+        if (nd.field.relative && tail != null && !isExpired(tail, time) &&
+                tail.enqueueTime > host.stateTime[tail.field.report.ordinal()] &&
+                tail.enqueueTime > host.afterMotionTime &&
+                coalesce(tail, nd)) {
+            recycle(nd);
+        } else if (makeRoom(host, nd)) {
+            lane.add(nd);
+        } else {
+            recycle(nd);
+        }
+    }
+
+    /* Next report of the host by lane priority, null if nothing is waiting */
+    private NotificationData<D> next(HostQueue<D> host) {
+        NotificationData<D> nd = host.stateLane.peek();
+        NotificationData<D> first = host.motionLane.peek();
+        boolean motionTurn = first != null && (host.stateRun >= MOTION_SHARE ||
+                (nd != null && nd.afterMotion && first.enqueueTime <= nd.enqueueTime));
+
+        if (!motionTurn && (nd = host.stateLane.poll()) != null) {
+            NotificationData<D> motion;
+
+            if (nd == host.contacts) {
+                host.contacts = null;
+            }
+
+            /* Motion which was waiting before the transition rides along with it */
+            while ((motion = host.motionLane.peek()) != null &&
+                    motion.enqueueTime <= nd.enqueueTime && coalesce(nd, motion)) {
+                host.motionLane.poll();
+                recycle(motion);
+            }
+
+            if (!host.motionLane.isEmpty()) {
+                host.stateRun++;
+            }
+
+            return nd;
+        }
+
+        host.stateRun = 0;
+        nd = host.motionLane.poll();
+
+        if (nd != null) {
+            byte[] sent = host.sent[nd.field.report.ordinal()];
+            byte[] relative = nd.field.report.relative_mask;
+
+            /* Buttons as last sent - a transition may have overtaken this report */
+            for (int i = 0; i < nd.value.length; i++) {
+                nd.value[i] = (byte) ((nd.value[i] & relative[i]) | (sent[i] & ~relative[i]));
+            }
+        }
+
+        return nd;
+    }
+
+    /*
+     * Boot mouse report to send for nd, whose motion may not fit its 8 bit axes. Motion which
+     * does not fit goes back to the head of the motion lane. A transition is sent as a motion
+     * report with the buttons as last sent instead, and waits at the head of the state lane
+     * with the motion which is left.
+     */
+    private NotificationData<D> splitBootMotion(HostQueue<D> host, NotificationData<D> nd) {
+        ReportField fx = ReportField.REPORT_FIELD_MOUSE_HIRES_X;
+        ReportField fy = ReportField.REPORT_FIELD_MOUSE_HIRES_Y;
+        int x = BootReport.remainder(nd.value, fx);
+        int y = BootReport.remainder(nd.value, fy);
+        byte[] relative = nd.field.report.relative_mask;
+        byte[] sent = host.sent[nd.field.report.ordinal()];
+        NotificationData<D> part;
+
+        if (x == 0 && y == 0) {
+            return nd;
+        }
+
+        part = obtain(host.device, ReportField.REPORT_FIELD_MOUSE_HIRES_XY, nd.eventTime,
+                nd.enqueueTime);
+        part.boot = true;
+
+        if (nd.field.relative) {
+            for (int i = 0; i < part.value.length; i++) {
+                part.value[i] = (byte) (nd.value[i] & ~relative[i]);
+            }
+
+            fx.setRelative(part.value, x);
+            fy.setRelative(part.value, y);
+            host.motionLane.addFirst(part);
+            return nd;
+        }
+
+        for (int i = 0; i < part.value.length; i++) {
+            part.value[i] = (byte) (sent[i] & ~relative[i]);
+        }
+
+        fx.setRelative(part.value, fx.getRelative(nd.value) - x);
+        fy.setRelative(part.value, fy.getRelative(nd.value) - y);
+        fx.setRelative(nd.value, x);
+        fy.setRelative(nd.value, y);
+        host.stateLane.addFirst(nd);
+        // A motion turn after all, see next()
+        host.stateRun = 0;
+        return part;
+    }
+
+    private void publishBacklog() {
+        int max = 0;
+
+        for (int i = 0; i < hosts.size(); i++) {
+            HostQueue<D> host = hosts.get(i);
+
+            max = Math.max(max, host.stateLane.size() + host.motionLane.size() +
+                    host.inFlight.size());
+        }
+
+        hostBacklog = max;
+    }
+
+    /* Queue the next step of the host's fling if its link is idle */
+    private void flingStep(HostQueue<D> host, long now) {
+        Fling fling = host.fling;
+
+        if (!fling.active || host.inFlight.size() >= HOST_CREDITS ||
+                !host.stateLane.isEmpty() || !host.motionLane.isEmpty() ||
+                now - fling.last < FLING_STEP_MS * 1000000L) {
+            return;
+        }
+
+        fling.last = now;
+        fling.active = false;
+
+        if (fling.wheel != null) {
+            int step = fling.step(fling.wheel, fling.wheelRate, 0, now);
+
+            apply(host, fling.wheel, step, -1L, now, now, false);
+        }
+
+        if (fling.pan != null) {
+            int step = fling.step(fling.pan, fling.panRate, 1, now);
+
+            apply(host, fling.pan, step, -1L, now, now, false);
+        }
+    }
+
+    /* Round-robin over hosts with credit; the starting host rotates on every call */
+    private void schedule() {
+        int count = hosts.size();
+        long now = clock.nanoTime();
+        boolean sent = true;
+
+        flinging = false;
+
+        for (int i = 0; i < count; i++) {
+            HostQueue<D> host = hosts.get(i);
+
+            dropExpired(host, now);
+            flingStep(host, now);
+            flinging |= host.fling.active;
+        }
+
+        while (sent) {
+            sent = false;
+
+            for (int i = 0; i < count; i++) {
+                HostQueue<D> host = hosts.get((nextHost + i) % count);
+                NotificationData<D> nd;
+
+                if (host.inFlight.size() >= HOST_CREDITS || (nd = next(host)) == null) {
+                    continue;
+                }
+
+                nd.boot = host.boot;
+
+                if (nd.boot && nd.field.report == InputReport.INPUT_REPORT_MOUSE) {
+                    nd = splitBootMotion(host, nd);
+                }
+
+                if (nd.boot && !BootReport.encode(nd.field.report, nd.value, nd.boot_value)) {
+                    // Queued before the host switched to the boot protocol - nowhere to send it
+                    recycle(nd);
+                    sent = true;
+                    continue;
+                }
+
+                nd.notifyTime = clock.nanoTime();
+
+                if (sink.send(nd)) {
+                    System.arraycopy(nd.value, 0, host.sent[nd.field.report.ordinal()], 0,
+                            nd.value.length);
+                    host.inFlight.add(nd);
+                } else {
+                    // Refused by the stack - the report is dropped, no completion will follow
+                    recycle(nd);
+                }
+
+                sent = true;
+            }
+        }
+
+        if (count > 0) {
+            nextHost = (nextHost + 1) % count;
+        }
+
+        publishBacklog();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            if (!process()) {
+                if (flinging) {
+                    LockSupport.parkNanos(this, FLING_STEP_MS * 1000000L);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        }
+    }
+
+    /*
+     * Single pass of the owner loop. Returns true if more work arrived meanwhile. Only for
+     * callers which drive the transmitter themselves (simulation) - never together with start().
+     */
+    boolean process() {
+        Runnable r;
+        UpdateQueue.Entry<D> e;
+
+        while ((r = control.poll()) != null) {
+            r.run();
+        }
+
+        while ((e = incoming.peek()) != null) {
+            onUpdate(e);
+            // Publish before the entry leaves the ring, so the backlog never looks smaller
+            publishBacklog();
+            incoming.release(e);
+        }
+
+        schedule();
+
+        return !control.isEmpty() || !incoming.isEmpty();
+    }
+
+    private static class HostQueue<D> {
+        final D device;
+        /* Transitions of absolute fields - keys, buttons, controls */
+        final ArrayDeque<NotificationData<D>> stateLane = new ArrayDeque<>();
+        /* Relative motion and wheel */
+        final ArrayDeque<NotificationData<D>> motionLane = new ArrayDeque<>();
+        /* Sent but not confirmed yet, at most HOST_CREDITS */
+        final ArrayDeque<NotificationData<D>> inFlight = new ArrayDeque<>();
+        /* Indexed by InputReport.ordinal() */
+        final ReportState[] states = new ReportState[InputReport.values().length];
+        LatencyStats stats;
+        /* Last report of every InputReport handed to the stack */
+        final byte[][] sent = new byte[InputReport.values().length][];
+        /* State reports sent since the last motion report */
+        int stateRun = 0;
+        /* Host selected the boot protocol */
+        boolean boot = false;
+        /* Host enabled the Resolution Multiplier of the wheel / of the pan */
+        boolean hiresWheel = false;
+        boolean hiresPan = false;
+        /* Fraction of a detent not sent yet - wheel, pan */
+        final int[] wheelRest = new int[2];
+        final Fling fling = new Fling();
+        /* Enqueue time of the last state report of every InputReport */
+        final long[] stateTime = new long[InputReport.values().length];
+        /* Enqueue time of the last state report queued with updateAfterMotion() */
+        long afterMotionTime;
+        /* Digitizer report queued and not sent yet - moved contacts update it in place */
+        NotificationData<D> contacts;
+
+        HostQueue(D device) {
+            this.device = device;
+            createReports();
+        }
+
+        /* Fresh reports for the current layout - see ReportField.updateValues */
+        void createReports() {
+            for (InputReport report : InputReport.values()) {
+                states[report.ordinal()] = new ReportState(report);
+                sent[report.ordinal()] = new byte[report.length];
+            }
+
+            wheelRest[0] = 0;
+            wheelRest[1] = 0;
+            Arrays.fill(stateTime, Long.MIN_VALUE);
+            afterMotionTime = Long.MIN_VALUE;
+            contacts = null;
+        }
+    }
+
+    /*
+     * Wheel / pan speed decaying as v * e^(-t / tau); the distance covered after t is
+     * v * tau * (1 - e^(-t / tau)). Steps send the whole units of the distance which were not
+     * sent yet, so rounding never adds up over the fling.
+     */
+    private static class Fling {
+        ReportField wheel;
+        ReportField pan;
+        float wheelRate;
+        float panRate;
+        long start;
+        /* Time of the last step */
+        long last;
+        /* Units sent so far - wheel, pan */
+        final int[] done = new int[2];
+        boolean active = false;
+
+        void start(ReportField wheel, ReportField pan, float wheelRate, float panRate,
+                   long now) {
+            this.wheel = wheel != null && wheel.byte_offset >= 0 ? wheel : null;
+            this.pan = pan != null && pan.byte_offset >= 0 ? pan : null;
+            this.wheelRate = wheelRate;
+            this.panRate = panRate;
+            start = now;
+            last = now;
+            done[0] = 0;
+            done[1] = 0;
+            active = this.wheel != null || this.pan != null;
+        }
+
+        /* Units of the axis due by now; keeps the fling active while more than half is left */
+        int step(ReportField rf, float rate, int axis, long now) {
+            double tau = FLING_TAU_MS / 1000.0;
+            double decay = Math.exp(-(now - start) / 1e9 / tau);
+            double total = rate * tau;
+            int due = (int) Math.round(total * (1 - decay)) - done[axis];
+            // A stalled link gets the rest with the next steps, the field has a limited range
+            int step = clamp(due, rf.relativeLimit());
+
+            if (Math.abs(total * decay) >= 0.5 || step != due) {
+                active = true;
+            }
+
+            done[axis] += step;
+            return step;
+        }
+    }
+}
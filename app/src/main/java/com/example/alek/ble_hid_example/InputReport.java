@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+/*
+ * Input reports of the HID service. Every feature has its own Report ID and its own Report
+ * characteristic, so a notification carries only the fields of a single feature - a mouse move
+ * does not pay for keys and consumer controls it never changes.
+ */
+enum InputReport {
+    INPUT_REPORT_CONSUMER(ReportField.REP_CONSUMER, 2),
+    INPUT_REPORT_KEYBOARD(ReportField.REP_KEYBOARD, 3),
+    INPUT_REPORT_MOUSE(ReportField.REP_MOUSE, 4),
+    INPUT_REPORT_DIGITIZER(ReportField.REP_DIGITIZER, 5);
+
+    /* REP_* feature carried by the report */
+    public final int feature;
+    /* Report ID in the report map and in the Report Reference descriptor */
+    public final int report_id;
+    /* Length without the Report ID for the current feature set, 0 - report not present */
+    public int length = 0;
+    /* Bits of relative fields - they carry a delta rather than a state, length bytes */
+    public byte[] relative_mask = new byte[0];
+    /* Feature report with the same Report ID, 0 if there is none */
+    public int feature_length = 0;
+
+    InputReport(int feature, int report_id) {
+        this.feature = feature;
+        this.report_id = report_id;
+    }
+
+    static InputReport forFeature(int feature) {
+        switch (feature) {
+            case ReportField.REP_CONSUMER:
+                return INPUT_REPORT_CONSUMER;
+            case ReportField.REP_KEYBOARD:
+                return INPUT_REPORT_KEYBOARD;
+            case ReportField.REP_MOUSE:
+                return INPUT_REPORT_MOUSE;
+            case ReportField.REP_DIGITIZER:
+                return INPUT_REPORT_DIGITIZER;
+            default:
+                throw new IllegalArgumentException("No input report for feature " + feature);
+        }
+    }
+}
@@ -15,11 +15,14 @@
  */
 package com.example.alek.ble_hid_example;
 
+import android.app.Activity;
 import android.content.Context;
+import android.content.Intent;
 import android.graphics.Color;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
@@ -34,10 +37,22 @@ import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.ToggleButton;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
 import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class KeyboardFragment extends Fragment implements Button.OnTouchListener,
-        AdapterView.OnItemSelectedListener, View.OnClickListener {
+        AdapterView.OnItemSelectedListener, View.OnClickListener, TextTyper.Listener {
+    private static final int REQUEST_OPEN_TEXT = 1;
+
+    /* Typers started and not finished yet - queued ones included, all of them are cancelled */
+    private final CopyOnWriteArrayList<TextTyper> typers = new CopyOnWriteArrayList<>();
 
     public static KeyboardFragment newInstance() {
         return new KeyboardFragment();
@@ -51,6 +66,8 @@ public class KeyboardFragment extends Fragment implements Button.OnTouchListener
     @Override
     public void onViewCreated(View view, @Nullable Bundle savedInstanceState) {
         getActivity().findViewById(R.id.keyboard_button_send).setOnClickListener(this);
+        getActivity().findViewById(R.id.keyboard_button_type_file).setOnClickListener(this);
+        getActivity().findViewById(R.id.keyboard_button_cancel_typing).setOnClickListener(this);
 
         // Keyboard character spinner configuration
         Spinner spinner_kb = (Spinner) getActivity().findViewById(R.id.keyboard_spinner_character);
@@ -85,25 +102,24 @@ public class KeyboardFragment extends Fragment implements Button.OnTouchListener
 
     @Override
     public boolean onTouch(View v, MotionEvent event) {
-        short toSend = 0;
-        int value = ConsumerControlUsage.getUsage(v.getId());
+        int value = ConsumerControlUsage.getUsage(v.getId()) & 0xffff;
         MainActivity activity = (MainActivity) getActivity();
 
         if (value == 0) {
             return false;
         }
 
+        // Only the touched control changes - other held controls stay pressed
         if (event.getAction() == MotionEvent.ACTION_DOWN) {
-            toSend |= value;
+            activity.setReportBits(ReportField.REPORT_FIELD_CONSUMER_CONTROL, value, true,
+                    event.getEventTime());
         } else if (event.getAction() == MotionEvent.ACTION_UP) {
-            toSend &= ~value;
-            toSend &= 0xffff;
+            activity.setReportBits(ReportField.REPORT_FIELD_CONSUMER_CONTROL, value, false,
+                    event.getEventTime());
         } else {
             return false;
         }
 
-        activity.sendNotification(ReportField.REPORT_FIELD_CONSUMER_CONTROL, toSend);
-
         return true;
     }
 
@@ -142,8 +158,109 @@ public class KeyboardFragment extends Fragment implements Button.OnTouchListener
 
         switch (v.getId()) {
             case R.id.keyboard_button_send:
-                activity.sendNotification(((EditText) getActivity().findViewById(
-                        R.id.keyboard_edit_text)).getText().toString());
+                String text = ((EditText) getActivity().findViewById(
+                        R.id.keyboard_edit_text)).getText().toString();
+
+                track(activity.typeText(new StringReader(text), text.length(), this));
+                break;
+            case R.id.keyboard_button_type_file:
+                Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                intent.setType("text/*");
+                startActivityForResult(intent, REQUEST_OPEN_TEXT);
+                break;
+            case R.id.keyboard_button_cancel_typing:
+                for (TextTyper typer : typers) {
+                    typer.cancel();
+                }
+
+                // A typer which finished before it was tracked would stay here otherwise
+                typers.clear();
+                break;
+        }
+    }
+
+    /* Service is not bound yet if typer is null */
+    private void track(TextTyper typer) {
+        if (typer != null) {
+            typers.add(typer);
+        }
+    }
+
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent data) {
+        MainActivity activity = (MainActivity) getActivity();
+        InputStream stream;
+
+        if (requestCode != REQUEST_OPEN_TEXT || resultCode != Activity.RESULT_OK ||
+                data == null || data.getData() == null) {
+            return;
+        }
+
+        try {
+            stream = activity.getContentResolver().openInputStream(data.getData());
+        } catch (FileNotFoundException e) {
+            Log.e("BLE", "Opening text to type failed: " + e.getMessage());
+            return;
+        }
+
+        if (stream != null) {
+            Reader reader = new InputStreamReader(stream, Charset.forName("UTF-8"));
+
+            track(activity.typeText(reader, -1, this));
+        }
+    }
+
+    @Override
+    public void onProgress(TextTyper typer, final long typed, final long total,
+                           final float charsPerSecond) {
+        final MainActivity activity = (MainActivity) getActivity();
+
+        if (activity == null) {
+            return;
+        }
+
+        activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                String text = total < 0 ?
+                        activity.getString(R.string.typing_progress, typed, charsPerSecond) :
+                        activity.getString(R.string.typing_progress_total, typed, total,
+                                charsPerSecond);
+
+                setTypingStatus(activity, text);
+            }
+        });
+    }
+
+    @Override
+    public void onFinished(TextTyper typer, final long typed, final boolean cancelled,
+                           final IOException error) {
+        final MainActivity activity = (MainActivity) getActivity();
+
+        typers.remove(typer);
+
+        if (activity == null) {
+            return;
+        }
+
+        activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                int id = error != null ? R.string.typing_failed :
+                        (cancelled ? R.string.typing_cancelled : R.string.typing_finished);
+
+                setTypingStatus(activity, activity.getString(id, typed));
+            }
+        });
+    }
+
+    private static void setTypingStatus(MainActivity activity, String text) {
+        TextView view = (TextView) activity.findViewById(R.id.keyboard_text_typing_progress);
+
+        if (view != null) {
+            view.setText(text);
         }
     }
 }
@@ -198,6 +198,27 @@ final class KeyboardUsage {
             new KeyboardUsage("ź", (byte) 0x1b, 'x', META_RIGHT_ALT, true),
             new KeyboardUsage("ż", (byte) 0x1d, 'z', META_RIGHT_ALT, true),
     };
+
+    /*
+     * Character -> (meta | usage << 8) lookup, built once from KEYBOARD_USAGES. The first entry
+     * producing a character wins, zero means the character can not be typed.
+     */
+    private static final int CHARACTER_TABLE_SIZE = 0x180;
+    private static final int[] CHARACTER_USAGES = new int[CHARACTER_TABLE_SIZE];
+
+    static {
+        for (KeyboardUsage usage : KEYBOARD_USAGES) {
+            putCharacter(usage.character, usage);
+        }
+
+        /* Letters typed with AltGr are described by the character they produce */
+        for (KeyboardUsage usage : KEYBOARD_USAGES) {
+            if (usage.non_keyboard && usage.description.length() == 1) {
+                putCharacter(usage.description.charAt(0), usage);
+            }
+        }
+    }
+
     public final String description;
     final int key_code;
     final byte usage;
@@ -254,6 +275,30 @@ final class KeyboardUsage {
         return 0;
     }
 
+    private static void putCharacter(char c, KeyboardUsage ku) {
+        if (c != '\0' && ku.usage != 0 && c < CHARACTER_TABLE_SIZE && CHARACTER_USAGES[c] == 0) {
+            CHARACTER_USAGES[c] = (ku.meta & 0xff) | ((ku.usage & 0xff) << 8);
+        }
+    }
+
+    /* Returns meta | usage << 8 for the given character or 0 if it can not be typed */
+    static int getCharacterUsage(char c) {
+        char l = Character.toLowerCase(c);
+        int u;
+
+        if (l >= CHARACTER_TABLE_SIZE) {
+            return 0;
+        }
+
+        u = CHARACTER_USAGES[l];
+
+        if (u != 0 && Character.isLetter(c) && Character.isUpperCase(c)) {
+            u |= META_LEFT_SHIFT;
+        }
+
+        return u;
+    }
+
     static public List<String> getUsageNames() {
         List<String> l = new ArrayList<>();
 
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Fixed size log-linear histogram of latencies with microsecond resolution.
+ *
+ * Values below 16 us get a bucket each, above that every power of two is split into 8 buckets,
+ * so a bucket is never wider than 12.5% of its values. Everything from 0 up to half an hour fits
+ * in BUCKETS counters. Recording is a single counter increment; it may be done by one thread
+ * only, reading is allowed from any thread.
+ */
+class LatencyHistogram {
+    private static final int LINEAR = 16;
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 31;
+    static final int BUCKETS = LINEAR + (MAX_EXPONENT - 3) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /* Single writer only */
+    void record(long ns) {
+        int i = index(Math.max(ns, 0) / 1000);
+
+        counts.lazySet(i, counts.get(i) + 1);
+    }
+
+    void clear() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    long count() {
+        long n = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            n += counts.get(i);
+        }
+
+        return n;
+    }
+
+    long count(int bucket) {
+        return counts.get(bucket);
+    }
+
+    /* Value below which p percent of the samples are, in ns; middle of the bucket, 0 if empty */
+    long percentile(double p) {
+        long n = count();
+        long rank = Math.max(1, (long) Math.ceil(p / 100 * n));
+        long seen = 0;
+
+        if (n == 0) {
+            return 0;
+        }
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+
+            if (seen >= rank) {
+                return (lowerBound(i) + upperBound(i)) * 500;
+            }
+        }
+
+        return upperBound(BUCKETS - 1) * 1000;
+    }
+
+    /* Upper bound of the highest non-empty bucket, in ns */
+    long max() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) != 0) {
+                return upperBound(i) * 1000;
+            }
+        }
+
+        return 0;
+    }
+
+    /* One "low_us,high_us,count" line per non-empty bucket, each prefixed with prefix */
+    void export(StringBuilder sb, String prefix) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i);
+
+            if (c != 0) {
+                sb.append(String.format(Locale.US, "%s%d,%d,%d%n", prefix, lowerBound(i),
+                        upperBound(i), c));
+            }
+        }
+    }
+
+    static int index(long us) {
+        int exponent;
+
+        if (us < LINEAR) {
+            return (int) us;
+        }
+
+        exponent = 63 - Long.numberOfLeadingZeros(us);
+
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+
+        return LINEAR + (exponent - 4) * SUB_BUCKETS +
+                (int) ((us >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    /* Smallest value of the bucket, in us */
+    static long lowerBound(int bucket) {
+        int exponent;
+
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+
+        exponent = (bucket - LINEAR) / SUB_BUCKETS + 4;
+        return (long) (SUB_BUCKETS + (bucket - LINEAR) % SUB_BUCKETS) << (exponent - SUB_BITS);
+    }
+
+    /* Largest value of the bucket, in us */
+    static long upperBound(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+
+        return lowerBound(bucket) + (1L << ((bucket - LINEAR) / SUB_BUCKETS + 4 - SUB_BITS)) - 1;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import java.util.Locale;
+
+/*
+ * Latency histograms of a single host, one per report type and stage:
+ * - input - source event (touch, key) until the update was queued,
+ * - queue - waiting in the transmitter until handed to the stack,
+ * - radio - handed to the stack until onNotificationSent,
+ * - total - source event until onNotificationSent.
+ * Recorded by the transmitter thread, read by anyone.
+ */
+class LatencyStats {
+    static final int TYPE_CONSUMER = 0;
+    static final int TYPE_KEYBOARD = 1;
+    static final int TYPE_MOUSE = 2;
+    static final int TYPES = 3;
+    static final String[] TYPE_NAMES = {"consumer", "keyboard", "mouse"};
+
+    static final int STAGE_INPUT = 0;
+    static final int STAGE_QUEUE = 1;
+    static final int STAGE_RADIO = 2;
+    static final int STAGE_TOTAL = 3;
+    static final int STAGES = 4;
+    static final String[] STAGE_NAMES = {"input", "queue", "radio", "total"};
+
+    private static final double MS = 1000000.0;
+
+    private final LatencyHistogram[][] histograms = new LatencyHistogram[TYPES][STAGES];
+
+    LatencyStats() {
+        for (int t = 0; t < TYPES; t++) {
+            for (int s = 0; s < STAGES; s++) {
+                histograms[t][s] = new LatencyHistogram();
+            }
+        }
+    }
+
+    static int typeOf(ReportField rf) {
+        switch (rf.feature) {
+            case ReportField.REP_CONSUMER:
+                return TYPE_CONSUMER;
+            case ReportField.REP_KEYBOARD:
+                return TYPE_KEYBOARD;
+            default:
+                return TYPE_MOUSE;
+        }
+    }
+
+    /* All times in ns of the same clock; single writer only */
+    void record(ReportField rf, long eventTime, long enqueueTime, long notifyTime, long sentTime) {
+        LatencyHistogram[] h = histograms[typeOf(rf)];
+
+        h[STAGE_INPUT].record(enqueueTime - eventTime);
+        h[STAGE_QUEUE].record(notifyTime - enqueueTime);
+        h[STAGE_RADIO].record(sentTime - notifyTime);
+        h[STAGE_TOTAL].record(sentTime - eventTime);
+    }
+
+    LatencyHistogram get(int type, int stage) {
+        return histograms[type][stage];
+    }
+
+    void clear() {
+        for (LatencyHistogram[] type : histograms) {
+            for (LatencyHistogram h : type) {
+                h.clear();
+            }
+        }
+    }
+
+    /* Human readable p50 / p99 / max per type and stage, types without samples are skipped */
+    void summary(StringBuilder sb) {
+        for (int t = 0; t < TYPES; t++) {
+            long n = histograms[t][STAGE_TOTAL].count();
+
+            if (n == 0) {
+                continue;
+            }
+
+            sb.append(String.format(Locale.US, " %-9s n=%-7d %6s %6s %6s%n", TYPE_NAMES[t], n,
+                    "p50", "p99", "max"));
+
+            for (int s = 0; s < STAGES; s++) {
+                LatencyHistogram h = histograms[t][s];
+
+                sb.append(String.format(Locale.US, "   %-15s %6.1f %6.1f %6.1f%n", STAGE_NAMES[s],
+                        h.percentile(50) / MS, h.percentile(99) / MS, h.max() / MS));
+            }
+        }
+    }
+
+    /* CSV lines "host,type,stage,low_us,high_us,count" of all non-empty buckets */
+    void export(StringBuilder sb, String host) {
+        for (int t = 0; t < TYPES; t++) {
+            for (int s = 0; s < STAGES; s++) {
+                histograms[t][s].export(sb, host + "," + TYPE_NAMES[t] + "," + STAGE_NAMES[s] + ",");
+            }
+        }
+    }
+}
@@ -34,15 +34,17 @@ import android.view.KeyEvent;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.List;
 
 public class MainActivity extends FragmentActivity implements KeyEvent.Callback {
     private final Handler threadHandler = new Handler();
     public CustomViewPager pager = null;
     public PagerAdapter pagerAdapter = null;
-    private volatile ArrayList<BluetoothDevice> devices = new ArrayList<>();
+    private volatile List<BluetoothDevice> devices = new ArrayList<>();
     private final Runnable deviceLayoutUpdate = new Runnable() {
-        volatile ArrayList<BluetoothDevice> devices_copy = new ArrayList<>();
+        volatile List<BluetoothDevice> devices_copy = new ArrayList<>();
 
         public void run() {
             final long refreshLayoutPeriodMs = 300;
@@ -95,7 +97,7 @@ public class MainActivity extends FragmentActivity implements KeyEvent.Callback
         }
     };
     private final Runnable deviceFieldUpdate = new Runnable() {
-        volatile ArrayList<BluetoothDevice> devices_copy = new ArrayList<>();
+        volatile List<BluetoothDevice> devices_copy = new ArrayList<>();
         private int i = 0;
 
         public void run() {
@@ -178,7 +180,7 @@ public class MainActivity extends FragmentActivity implements KeyEvent.Callback
         });
     }
 
-    public void onConnectionStateChange(ArrayList<BluetoothDevice> dev_array) {
+    public void onConnectionStateChange(List<BluetoothDevice> dev_array) {
         devices = dev_array;
     }
 
@@ -191,6 +193,129 @@ public class MainActivity extends FragmentActivity implements KeyEvent.Callback
         mService.sendNotification(rf, value);
     }
 
+    public void sendNotification(ReportField rf, int value, long eventTime) {
+        if (mService == null) {
+            // Service is not bound yet
+            return;
+        }
+
+        mService.sendNotification(rf, value, eventTime);
+    }
+
+    public void setReportBits(ReportField rf, int bits, boolean set, long eventTime) {
+        if (mService == null) {
+            // Service is not bound yet
+            return;
+        }
+
+        mService.setReportBits(rf, bits, set, eventTime);
+    }
+
+    public void setReportBitsAfterMotion(ReportField rf, int bits, boolean set, long eventTime) {
+        if (mService == null) {
+            // Service is not bound yet
+            return;
+        }
+
+        mService.setReportBitsAfterMotion(rf, bits, set, eventTime);
+    }
+
+    public String getLatencySummary() {
+        return mService == null ? "" : mService.getLatencySummary();
+    }
+
+    public String exportLatency() {
+        return mService == null ? "" : mService.exportLatency();
+    }
+
+    public void clearLatencyStats() {
+        if (mService != null) {
+            mService.clearLatencyStats();
+        }
+    }
+
+    public void sendMouseMotion(int dx, int dy, long eventTime) {
+        if (mService == null) {
+            // Service is not bound yet
+            return;
+        }
+
+        mService.sendMouseMotion(dx, dy, eventTime);
+    }
+
+    public void sendContacts(long report, long eventTime) {
+        if (mService == null) {
+            // Service is not bound yet
+            return;
+        }
+
+        mService.sendContacts(report, eventTime);
+    }
+
+    public void sendMouseScroll(int wheel, int pan, long eventTime) {
+        if (mService == null) {
+            // Service is not bound yet
+            return;
+        }
+
+        mService.sendMouseScroll(wheel, pan, eventTime);
+    }
+
+    public void fling(float wheelRate, float panRate) {
+        if (mService == null) {
+            // Service is not bound yet
+            return;
+        }
+
+        mService.fling(wheelRate, panRate);
+    }
+
+    public void cancelFling() {
+        if (mService == null) {
+            // Service is not bound yet
+            return;
+        }
+
+        mService.cancelFling();
+    }
+
+    /* 0 until the service is bound or a mouse report was confirmed */
+    public int getMotionLatencyMs() {
+        if (mService == null) {
+            // Service is not bound yet
+            return 0;
+        }
+
+        return mService.getMotionLatencyMs();
+    }
+
+    public boolean setNkroKey(int usage, boolean pressed, long eventTime) {
+        if (mService == null) {
+            // Service is not bound yet
+            return false;
+        }
+
+        return mService.setNkroKey(usage, pressed, eventTime);
+    }
+
+    public void setExtraKey(int usage, boolean pressed, long eventTime) {
+        if (mService == null) {
+            // Service is not bound yet
+            return;
+        }
+
+        mService.setExtraKey(usage, pressed, eventTime);
+    }
+
+    public void setReportBits(ReportField rf, int bits, boolean set) {
+        if (mService == null) {
+            // Service is not bound yet
+            return;
+        }
+
+        mService.setReportBits(rf, bits, set);
+    }
+
     public void sendNotification(String s) {
         if (mService == null) {
             // Service is not bound yet
@@ -200,6 +325,15 @@ public class MainActivity extends FragmentActivity implements KeyEvent.Callback
         mService.sendNotification(s);
     }
 
+    public TextTyper typeText(Reader reader, long length, TextTyper.Listener listener) {
+        if (mService == null) {
+            // Service is not bound yet
+            return null;
+        }
+
+        return mService.typeText(reader, length, listener);
+    }
+
     public void restartGattDatabase() {
         if (mService == null) {
             return;
@@ -245,10 +379,10 @@ public class MainActivity extends FragmentActivity implements KeyEvent.Callback
 
         if (pager.getCurrentItem() == PagerAdapter.MOUSE) {
             if (keyCode == KeyEvent.KEYCODE_VOLUME_DOWN) {
-                sendNotification(ReportField.REPORT_FIELD_MOUSE_SCROLL, -1);
+                sendMouseScroll(-ReportField.WHEEL_RESOLUTION, 0, event.getEventTime());
                 return true;
             } else if (keyCode == KeyEvent.KEYCODE_VOLUME_UP) {
-                sendNotification(ReportField.REPORT_FIELD_MOUSE_SCROLL, 1);
+                sendMouseScroll(ReportField.WHEEL_RESOLUTION, 0, event.getEventTime());
                 return true;
             }
         } else if (keyCode == KeyEvent.KEYCODE_VOLUME_DOWN ||
@@ -270,24 +404,18 @@ public class MainActivity extends FragmentActivity implements KeyEvent.Callback
 
         }
 
-        if (event.isCtrlPressed()) {
-            meta_key |= KeyboardUsage.META_LEFT_CONTROL;
-        }
+        meta_key |= getMetaKeys(event);
 
-        if (event.isShiftPressed()) {
-            meta_key |= KeyboardUsage.META_LEFT_SHIFT;
-        }
-
-        if (event.isAltPressed()) {
-            meta_key |= KeyboardUsage.META_LEFT_ALT;
-        }
-
-        if (event.isMetaPressed()) {
-            meta_key |= KeyboardUsage.META_LEFT_META;
+        // NKRO - every held key has its own bit, so other held keys stay pressed
+        if (ReportField.nkroField(key & 0xff) != null) {
+            sendNotification(ReportField.REPORT_FIELD_KEYBOARD_META_KEYS, meta_key & 0xff,
+                    event.getEventTime());
+            setNkroKey(key & 0xff, true, event.getEventTime());
+            return true;
         }
 
         val = (short) (meta_key + (key << 8));
-        sendNotification(ReportField.REPORT_FIELD_KEYBOARD_ALL, (int) val);
+        sendNotification(ReportField.REPORT_FIELD_KEYBOARD_ALL, (int) val, event.getEventTime());
 
         return true;
     }
@@ -297,19 +425,53 @@ public class MainActivity extends FragmentActivity implements KeyEvent.Callback
         int key = 0;
 
         if (keyCode == KeyEvent.KEYCODE_VOLUME_DOWN || keyCode == KeyEvent.KEYCODE_VOLUME_UP) {
-            if (pager.getCurrentItem() == PagerAdapter.MOUSE) {
-                sendNotification(ReportField.REPORT_FIELD_MOUSE_SCROLL, 0);
-                return true;
-            } else {
-                return false;
+            // The wheel step went out on key down, a relative field has nothing to release
+            return pager.getCurrentItem() == PagerAdapter.MOUSE;
+        }
+
+        for (int i = 0; i < KeyboardUsage.KEYBOARD_USAGES.length; i++) {
+            if (keyCode == KeyboardUsage.KEYBOARD_USAGES[i].key_code) {
+                int usage = KeyboardUsage.KEYBOARD_USAGES[i].usage & 0xff;
+
+                // NKRO - release just this key
+                if (ReportField.nkroField(usage) != null) {
+                    setNkroKey(usage, false, event.getEventTime());
+                    sendNotification(ReportField.REPORT_FIELD_KEYBOARD_META_KEYS,
+                            getMetaKeys(event) & 0xff, event.getEventTime());
+                    return true;
+                }
+
+                break;
             }
         }
 
-        sendNotification(ReportField.REPORT_FIELD_KEYBOARD_ALL, key);
+        sendNotification(ReportField.REPORT_FIELD_KEYBOARD_ALL, key, event.getEventTime());
 
         return true;
     }
 
+    private static byte getMetaKeys(KeyEvent event) {
+        byte meta_key = 0;
+
+        if (event.isCtrlPressed()) {
+            meta_key |= KeyboardUsage.META_LEFT_CONTROL;
+        }
+
+        if (event.isShiftPressed()) {
+            meta_key |= KeyboardUsage.META_LEFT_SHIFT;
+        }
+
+        if (event.isAltPressed()) {
+            meta_key |= KeyboardUsage.META_LEFT_ALT;
+        }
+
+        if (event.isMetaPressed()) {
+            meta_key |= KeyboardUsage.META_LEFT_META;
+        }
+
+        return meta_key;
+    }
+
     class PagerAdapter extends FragmentPagerAdapter {
         static final int CONFIGURATION = 0;
         static final int CONSUMER = 1;
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import android.view.MotionEvent;
+
+/*
+ * Turns touch positions into relative mouse counts sent at a fixed report rate.
+ *
+ * Every sample of a MotionEvent, the historical ones included, adds its displacement scaled
+ * from pixels to counts by the display density - counts_per_inch counts for an inch of finger
+ * travel on any screen. take() is called once per report interval and moves the whole counts
+ * gathered so far out; the fraction stays for the next report, so slow moves are not lost and
+ * the total displacement is exact whatever the sampling rate of the digitizer.
+ *
+ * The displacement of a sample is multiplied by the gain of the acceleration curve for the
+ * current finger speed (AccelerationCurve) - one table read per sample.
+ *
+ * Optionally the reports run ahead of the finger by the latency of the link (setPrediction).
+ * The velocity of the counts is smoothed over the samples and the cursor is placed where the
+ * finger will be after lead_ms at that velocity. Only the change of that lead is added to a
+ * report, so the prediction is never counted twice. When the samples stop coming, the finger lifts
+ * or another finger lands (stop()), the lead goes back to zero with the next report.
+ * The cursor then ends exactly where the finger did, and a wrong guess costs one
+ * correcting report.
+ */
+class MotionSampler {
+    /* Counts per inch of finger travel */
+    final static public int COUNTS_PER_INCH = 1000;
+    /* Report interval - the connection interval of a high priority BLE link */
+    final static public int REPORT_INTERVAL_MS = 15;
+    /* Longest prediction - beyond that a guess is more likely wrong than late */
+    final static public int PREDICT_MAX_MS = 60;
+    /* A finger which has not moved for that long is taken as resting, two frames at 60 Hz */
+    private final static int PREDICT_STALE_MS = 32;
+
+    public final int interval_ms;
+    private final int counts_per_inch;
+    /* Inches per pixel */
+    private final float x_inch;
+    private final float y_inch;
+    private AccelerationCurve curve = AccelerationCurve.CURVE_LINEAR;
+    /* How far reports run ahead of the finger, 0 - no prediction */
+    private int lead_ms = 0;
+    /* Pointer being followed, -1 if none */
+    private int pointer_id = -1;
+    private float last_x;
+    private float last_y;
+    private long last_time;
+    /* Smoothed finger speed, inches per second */
+    private float speed;
+    /* Counts not reported yet, the fraction included */
+    private float pending_x;
+    private float pending_y;
+    /* Time of the newest sample not reported yet, -1 if there is none */
+    private long sample_time = -1;
+    /* Smoothed velocity, counts per millisecond */
+    private float velocity_x;
+    private float velocity_y;
+    /* Counts reported ahead of the finger so far */
+    private float predicted_x;
+    private float predicted_y;
+    /* Result of the last successful take() */
+    public int dx;
+    public int dy;
+    /* Source event of that motion, SystemClock.uptimeMillis() base */
+    public long event_time;
+
+    MotionSampler(float xdpi, float ydpi, int counts_per_inch, int interval_ms) {
+        this.x_inch = 1.0f / xdpi;
+        this.y_inch = 1.0f / ydpi;
+        this.counts_per_inch = counts_per_inch;
+        this.interval_ms = interval_ms;
+    }
+
+    void setCurve(AccelerationCurve curve) {
+        this.curve = curve;
+    }
+
+    /* Run ahead of the finger by the latency of the link in ms, 0 - off */
+    void setPrediction(int lead_ms) {
+        this.lead_ms = Math.max(0, Math.min(lead_ms, PREDICT_MAX_MS));
+    }
+
+    /* Follow the pointer which went down - motion starts at its position, no residual */
+    void start(MotionEvent event) {
+        int index = event.getActionIndex();
+
+        pointer_id = event.getPointerId(index);
+        last_x = event.getX(index);
+        last_y = event.getY(index);
+        last_time = event.getEventTime();
+        speed = 0;
+        pending_x = 0;
+        pending_y = 0;
+        sample_time = -1;
+        velocity_x = 0;
+        velocity_y = 0;
+        predicted_x = 0;
+        predicted_y = 0;
+    }
+
+    void stop() {
+        pointer_id = -1;
+    }
+
+    boolean isTracking() {
+        return pointer_id >= 0;
+    }
+
+    /* All samples of the followed pointer carried by the event, oldest first */
+    void addEvent(MotionEvent event) {
+        int index = pointer_id < 0 ? -1 : event.findPointerIndex(pointer_id);
+
+        if (index < 0) {
+            return;
+        }
+
+        for (int h = 0; h < event.getHistorySize(); h++) {
+            addSample(event.getHistoricalX(index, h), event.getHistoricalY(index, h),
+                    event.getHistoricalEventTime(h));
+        }
+
+        addSample(event.getX(index), event.getY(index), event.getEventTime());
+    }
+
+    void addSample(float x, float y, long time) {
+        float dx_inch = (x - last_x) * x_inch;
+        float dy_inch = (y - last_y) * y_inch;
+        // Samples of one event may share the millisecond
+        long dt = time - last_time > 0 ? time - last_time : 1;
+        float distance = (float) Math.sqrt(dx_inch * dx_inch + dy_inch * dy_inch);
+        float scale;
+        float counts_x;
+        float counts_y;
+
+        speed += (distance * 1000 / dt - speed) / 2;
+        scale = counts_per_inch * curve.gain(speed);
+        counts_x = dx_inch * scale;
+        counts_y = dy_inch * scale;
+        pending_x += counts_x;
+        pending_y += counts_y;
+        velocity_x += (counts_x / dt - velocity_x) / 2;
+        velocity_y += (counts_y / dt - velocity_y) / 2;
+        last_x = x;
+        last_y = y;
+        last_time = time;
+        sample_time = time;
+    }
+
+    /*
+     * Move the whole counts out into dx / dy, false if there is nothing to report. now is the
+     * current SystemClock.uptimeMillis(), it tells a resting finger from a moving one.
+     */
+    boolean take(long now) {
+        float lead_x = 0;
+        float lead_y = 0;
+
+        if (lead_ms > 0 && isTracking() && now - last_time <= PREDICT_STALE_MS) {
+            lead_x = velocity_x * lead_ms;
+            lead_y = velocity_y * lead_ms;
+        }
+
+        if (sample_time < 0 && lead_x == predicted_x && lead_y == predicted_y) {
+            return false;
+        }
+
+        pending_x += lead_x - predicted_x;
+        pending_y += lead_y - predicted_y;
+        predicted_x = lead_x;
+        predicted_y = lead_y;
+
+        // Truncation towards zero - the residual has the sign of the motion either way
+        dx = (int) pending_x;
+        dy = (int) pending_y;
+        pending_x -= dx;
+        pending_y -= dy;
+        // A correction alone goes out with the time of the last sample it belongs to
+        event_time = sample_time < 0 ? last_time : sample_time;
+        sample_time = -1;
+
+        return dx != 0 || dy != 0;
+    }
+}
@@ -16,21 +16,47 @@
 package com.example.alek.ble_hid_example;
 
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
-import android.support.v4.view.VelocityTrackerCompat;
+import android.util.DisplayMetrics;
 import android.view.GestureDetector;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
-import android.view.VelocityTracker;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
 
 public class MouseFragment extends Fragment implements View.OnTouchListener {
-    private int i = 0;
-    private float x = 0.0f;
-    private float y = 0.0f;
+    private final Handler handler = new Handler();
+    private MotionSampler sampler;
+    private TouchGestures gestures;
+    /* Ctrl is held for a pinch zoom */
+    private boolean zoomCtrl = false;
+    /* Sends the motion gathered by the sampler, once per report interval while touched */
+    private final Runnable motionTick = new Runnable() {
+        @Override
+        public void run() {
+            sendMotion();
+            sendGestures();
+            handler.postDelayed(this, sampler.interval_ms);
+        }
+    };
+    private final Runnable releaseCtrl = new Runnable() {
+        @Override
+        public void run() {
+            MainActivity activity = (MainActivity) getActivity();
+
+            // Not ahead of the zoom wheel reports still queued, they would scroll instead
+            if (zoomCtrl && activity != null) {
+                activity.setReportBitsAfterMotion(ReportField.REPORT_FIELD_KEYBOARD_META_KEYS,
+                        KeyboardUsage.META_LEFT_CONTROL, false, SystemClock.uptimeMillis());
+            }
+
+            zoomCtrl = false;
+        }
+    };
 
     public static MouseFragment newInstance() {
         return new MouseFragment();
@@ -41,10 +67,112 @@ public class MouseFragment extends Fragment implements View.OnTouchListener {
         return inflater.inflate(R.layout.mouse_fragment, container, false);
     }
 
+    private void sendMotion() {
+        MainActivity activity = (MainActivity) getActivity();
+
+        if (activity != null && sampler.take(SystemClock.uptimeMillis())) {
+            activity.sendMouseMotion(sampler.dx, sampler.dy, sampler.event_time);
+        }
+    }
+
+    private void sendGestures() {
+        MainActivity activity = (MainActivity) getActivity();
+        int step = ReportField.REPORT_FIELD_MOUSE_HIRES_SCROLL.byte_offset >= 0 ? 1 :
+                ReportField.WHEEL_RESOLUTION;
+
+        if (activity == null || !gestures.take(step)) {
+            // Ctrl goes up a report interval after the last zoom step, not ahead of it
+            if (zoomCtrl && !gestures.isZooming()) {
+                releaseCtrl.run();
+            }
+
+            return;
+        }
+
+        if (gestures.wheel != 0 || gestures.pan != 0) {
+            activity.sendMouseScroll(gestures.wheel, gestures.pan, gestures.event_time);
+        }
+
+        // Zoom is Ctrl + wheel - without a keyboard there is nothing to hold Ctrl with
+        if (gestures.zoom != 0 && ReportField.REPORT_FIELD_KEYBOARD_META_KEYS.byte_offset >= 0) {
+            // Not ahead of the scroll wheel reports still queued, they would zoom instead
+            if (!zoomCtrl) {
+                activity.setReportBitsAfterMotion(ReportField.REPORT_FIELD_KEYBOARD_META_KEYS,
+                        KeyboardUsage.META_LEFT_CONTROL, true, gestures.event_time);
+                zoomCtrl = true;
+            }
+
+            activity.sendMouseScroll(gestures.zoom, 0, gestures.event_time);
+        }
+
+        if (gestures.swipe != TouchGestures.SWIPE_NONE) {
+            sendShortcut(activity, gestures.swipe, gestures.event_time);
+        }
+    }
+
+    /*
+     * Shortcut of a three finger swipe - keyboard if there is one, consumer control otherwise.
+     * Only the shortcut's own modifier bits and key change, a held modifier (e.g. the zoom
+     * Ctrl) and held keys stay held.
+     */
+    private void sendShortcut(MainActivity activity, int swipe, long eventTime) {
+        byte[] key = TouchGestures.SWIPE_KEYS[swipe];
+        int consumer = TouchGestures.SWIPE_CONSUMER[swipe];
+
+        if (ReportField.REPORT_FIELD_KEYBOARD_ALL.byte_offset >= 0) {
+            activity.setReportBits(ReportField.REPORT_FIELD_KEYBOARD_META_KEYS, key[0] & 0xff,
+                    true, eventTime);
+            activity.setExtraKey(key[1] & 0xff, true, eventTime);
+            activity.setExtraKey(key[1] & 0xff, false, eventTime);
+            activity.setReportBits(ReportField.REPORT_FIELD_KEYBOARD_META_KEYS, key[0] & 0xff,
+                    false, eventTime);
+        } else {
+            activity.setReportBits(ReportField.REPORT_FIELD_CONSUMER_CONTROL, consumer, true,
+                    eventTime);
+            activity.setReportBits(ReportField.REPORT_FIELD_CONSUMER_CONTROL, consumer, false,
+                    eventTime);
+        }
+    }
+
+    /* Absolute positions of the first DigitizerReport.CONTACTS pointers, lifted ones tip off */
+    private void sendContacts(View v, MotionEvent event) {
+        MainActivity activity = (MainActivity) getActivity();
+        int action = event.getActionMasked();
+        int count = Math.min(event.getPointerCount(), DigitizerReport.CONTACTS);
+        long report = DigitizerReport.count(count);
+
+        for (int i = 0; i < count; i++) {
+            boolean lifted = action == MotionEvent.ACTION_UP ||
+                    action == MotionEvent.ACTION_CANCEL ||
+                    (action == MotionEvent.ACTION_POINTER_UP && i == event.getActionIndex());
+
+            report |= DigitizerReport.contact(i, event.getPointerId(i), !lifted,
+                    event.getX(i) / v.getWidth(), event.getY(i) / v.getHeight());
+        }
+
+        activity.sendContacts(report, event.getEventTime());
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+
+        handler.removeCallbacks(motionTick);
+        handler.removeCallbacks(releaseCtrl);
+        releaseCtrl.run();
+        sampler.stop();
+        gestures.reset();
+    }
+
     @Override
     public void onViewCreated(View view, @Nullable Bundle savedInstanceState) {
         final View final_view = view;
         ViewTreeObserver observer = final_view.getViewTreeObserver();
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+
+        sampler = new MotionSampler(metrics.xdpi, metrics.ydpi, MotionSampler.COUNTS_PER_INCH,
+                MotionSampler.REPORT_INTERVAL_MS);
+        gestures = new TouchGestures(metrics.xdpi, metrics.ydpi);
 
         observer.addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
             @Override
@@ -71,59 +199,73 @@ public class MouseFragment extends Fragment implements View.OnTouchListener {
                     new GestureDetector.SimpleOnGestureListener() {
                         @Override
                         public boolean onDoubleTap(MotionEvent e) {
-                            activity.sendNotification(ReportField.REPORT_FIELD_MOUSE_BUTTONS, 0x01);
-                            activity.sendNotification(ReportField.REPORT_FIELD_MOUSE_BUTTONS, 0x00);
+                            activity.setReportBits(ReportField.REPORT_FIELD_MOUSE_BUTTONS, 0x01, true,
+                                    e.getEventTime());
+                            activity.setReportBits(ReportField.REPORT_FIELD_MOUSE_BUTTONS, 0x01, false,
+                                    e.getEventTime());
                             return super.onDoubleTap(e);
                         }
                     });
-            private VelocityTracker mVelocityTracker = null;
 
             @Override
             public boolean onTouch(View v, MotionEvent event) {
                 CustomViewPager pager = (CustomViewPager) getActivity().findViewById(R.id.viewPager);
 
-                int index = event.getActionIndex();
-                int action = event.getActionMasked();
-                int pointerId = event.getPointerId(index);
+                // Touch screen - the host gets the contacts themselves, taps included
+                if (ReportField.REPORT_FIELD_DIGITIZER_ALL.byte_offset >= 0) {
+                    pager.swipePossible(event.getActionMasked() == MotionEvent.ACTION_UP ||
+                            event.getActionMasked() == MotionEvent.ACTION_CANCEL);
+                    sendContacts(v, event);
+                    return true;
+                }
 
-                switch (action) {
-                    case MotionEvent.ACTION_DOWN:
-                        pager.swipePossible(false);
+                if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+                    // Catching the content stops it, like on a touch screen
+                    activity.cancelFling();
+                    gestures.reset();
+                }
 
-                        if (mVelocityTracker == null) {
-                            mVelocityTracker = VelocityTracker.obtain();
-                        } else {
-                            mVelocityTracker.clear();
-                        }
+                gestures.onTouchEvent(event);
+
+                if (gestures.takeFling()) {
+                    // What the fingers moved goes out first, the fling continues from there
+                    sendGestures();
+                    activity.fling(gestures.fling_wheel, gestures.fling_pan);
+                }
 
-                        mVelocityTracker.addMovement(event);
+                switch (event.getActionMasked()) {
+                    case MotionEvent.ACTION_DOWN:
+                        pager.swipePossible(false);
+                        sampler.setCurve(ApplicationConfiguration.getAccelerationCurve(
+                                getContext()));
+                        sampler.setPrediction(ApplicationConfiguration.getConfigurationField(
+                                getContext(), ApplicationConfiguration.PREDICT_MOTION_FEAT) ?
+                                activity.getMotionLatencyMs() : 0);
+                        sampler.start(event);
+                        handler.removeCallbacks(motionTick);
+                        handler.removeCallbacks(releaseCtrl);
+                        handler.postDelayed(motionTick, sampler.interval_ms);
+                        break;
+                    case MotionEvent.ACTION_POINTER_DOWN:
+                        // Fingers are a gesture now - the pointer stays until all of them lift
+                        sampler.addEvent(event);
+                        // Stopped first, so the prediction is taken back with the last motion
+                        sampler.stop();
+                        sendMotion();
                         break;
                     case MotionEvent.ACTION_MOVE:
-                        mVelocityTracker.addMovement(event);
-                        mVelocityTracker.computeCurrentVelocity(10000);
-
-                        if ((++i >= 3)) {
-                            x /= 150 * 3;
-                            y /= 150 * 3;
-
-                            byte _x = (byte) (x > 127 ? 127 : (x < -127 ? -127 : x));
-                            byte _y = (byte) (y > 127 ? 127 : (y < -127 ? -127 : y));
-                            int toSend = _x | (((short) _y) << 8);
-
-                            activity.sendNotification(ReportField.REPORT_FIELD_MOUSE_XY, toSend);
-                            i = 0;
-                            x = 0.0f;
-                            y = 0.0f;
-                        } else {
-                            x += VelocityTrackerCompat.getXVelocity(mVelocityTracker, pointerId);
-                            y += VelocityTrackerCompat.getYVelocity(mVelocityTracker, pointerId);
-                        }
-
+                        sampler.addEvent(event);
                         break;
                     case MotionEvent.ACTION_UP:
+                    case MotionEvent.ACTION_CANCEL:
                         pager.swipePossible(true);
-                        mVelocityTracker.recycle();
-                        mVelocityTracker = null;
+                        // The last samples go out right away instead of with the next tick
+                        sampler.addEvent(event);
+                        handler.removeCallbacks(motionTick);
+                        sampler.stop();
+                        sendMotion();
+                        sendGestures();
+                        handler.postDelayed(releaseCtrl, sampler.interval_ms);
                         break;
                 }
 
@@ -137,7 +279,6 @@ public class MouseFragment extends Fragment implements View.OnTouchListener {
     @Override
     public boolean onTouch(View v, MotionEvent event) {
         MainActivity activity = (MainActivity) getActivity();
-        short toSend = 0;
         int value;
 
         switch (v.getId()) {
@@ -161,17 +302,17 @@ public class MouseFragment extends Fragment implements View.OnTouchListener {
                 return false;
         }
 
+        // Only the touched button changes - other held buttons stay pressed
         if (event.getAction() == MotionEvent.ACTION_DOWN) {
-            toSend |= value;
+            activity.setReportBits(ReportField.REPORT_FIELD_MOUSE_BUTTONS, value, true,
+                    event.getEventTime());
         } else if (event.getAction() == MotionEvent.ACTION_UP) {
-            toSend &= ~value;
-            toSend &= 0xffff;
+            activity.setReportBits(ReportField.REPORT_FIELD_MOUSE_BUTTONS, value, false,
+                    event.getEventTime());
         } else {
             return false;
         }
 
-        activity.sendNotification(ReportField.REPORT_FIELD_MOUSE_BUTTONS, toSend);
-
         return true;
     }
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+/* Pooled by HidTransmitter - device and field are set every time the buffer is reused */
+class NotificationData<D> {
+    public final byte[] value;
+    /* Boot protocol format of value (BootReport), sent instead of it if boot is set */
+    public final byte[] boot_value;
+    public boolean boot;
+    public final boolean responseNeeded;
+    public D device;
+    public ReportField field;
+    /* State report which does not go ahead of the motion queued before it */
+    public boolean afterMotion;
+    /* Source event of the first update carried by the report */
+    public long eventTime;
+    /* System.nanoTime() of the first update carried by the report */
+    public long enqueueTime;
+    /* Handed to the stack */
+    public long notifyTime;
+
+    NotificationData(int length, int bootLength) {
+        this.value = new byte[length];
+        this.boot_value = new byte[bootLength];
+        this.responseNeeded = false;
+    }
+}
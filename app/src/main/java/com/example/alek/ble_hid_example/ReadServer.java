@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Values served to GATT read requests.
+ *
+ * Every cached attribute holds an immutable snapshot of its value - static attributes (Report
+ * Map, HID Information, PnP ID) for the lifetime of the database, dynamic ones (battery level,
+ * written attributes) until the next setValue(). Read responses are slices of the snapshot cut
+ * to the MTU of the host.
+ *
+ * Values longer than a response are read in several rounds (Read Blob). Every host has a
+ * cursor which pins the snapshot read at offset 0, so the following rounds are served from the
+ * same value even if it has been replaced in the mean time - a host never assembles a value
+ * from two different versions.
+ *
+ * Some attributes are selected by every host for itself (e.g. Protocol Mode). Their values
+ * written by a host are kept with its cursor - the host reads them back, other hosts still read
+ * the cached value, and a new connection starts from the cached value again.
+ *
+ * Read callbacks may come from different binder threads, so everything here is thread safe.
+ */
+class ReadServer<D> {
+    final static public int DEFAULT_MTU = 23;
+    /* ATT header of the Read (Blob) Response */
+    private final static int ATT_HEADER = 1;
+
+    private final ConcurrentHashMap<Object, byte[]> values = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<D, Cursor> cursors = new ConcurrentHashMap<>();
+
+    /* Cache a snapshot of the value, later changes of the array are not visible to hosts */
+    void setValue(Object attribute, byte[] value) {
+        values.put(attribute, value.clone());
+    }
+
+    /* Replace the value only if the attribute is cached at all */
+    void updateValue(Object attribute, byte[] value) {
+        if (values.containsKey(attribute)) {
+            setValue(attribute, value);
+        }
+    }
+
+    /* Value of the attribute served to the device only, until it disconnects */
+    void setHostValue(D device, Object attribute, byte[] value) {
+        Cursor cursor = cursor(device);
+
+        synchronized (cursor) {
+            cursor.values.put(attribute, value.clone());
+        }
+    }
+
+    /* Forget all values, e.g. when the database is recreated */
+    void clear() {
+        values.clear();
+
+        for (Cursor cursor : cursors.values()) {
+            synchronized (cursor) {
+                cursor.pin(null, null);
+                cursor.values.clear();
+            }
+        }
+    }
+
+    void onConnected(D device) {
+        cursors.put(device, new Cursor());
+    }
+
+    void onDisconnected(D device) {
+        cursors.remove(device);
+    }
+
+    void onMtuChanged(D device, int mtu) {
+        cursor(device).mtu = mtu;
+    }
+
+    /*
+     * Value to serve for a read at offset - the snapshot pinned by the read at offset 0 while
+     * the host continues reading the same attribute. Null if the attribute is not cached.
+     */
+    byte[] getValue(D device, Object attribute, int offset) {
+        Cursor cursor = cursor(device);
+        byte[] value;
+
+        synchronized (cursor) {
+            if (offset > 0 && cursor.attribute == attribute && cursor.value != null) {
+                return cursor.value;
+            }
+
+            value = cursor.values.get(attribute);
+
+            if (value == null) {
+                value = values.get(attribute);
+            }
+
+            cursor.pin(attribute, value);
+        }
+
+        return value;
+    }
+
+    /* Part of value starting at offset which fits a response, null if offset is past its end */
+    byte[] slice(D device, byte[] value, int offset) {
+        int length;
+        byte[] part;
+
+        if (offset < 0 || offset > value.length) {
+            return null;
+        }
+
+        length = Math.min(value.length - offset, cursor(device).mtu - ATT_HEADER);
+        part = new byte[length];
+        System.arraycopy(value, offset, part, 0, length);
+        return part;
+    }
+
+    private Cursor cursor(D device) {
+        Cursor cursor = cursors.get(device);
+
+        if (cursor == null) {
+            // Read before the connection callback - default MTU until the host changes it
+            Cursor created = new Cursor();
+
+            cursor = cursors.putIfAbsent(device, created);
+
+            if (cursor == null) {
+                cursor = created;
+            }
+        }
+
+        return cursor;
+    }
+
+    private static class Cursor {
+        volatile int mtu = DEFAULT_MTU;
+        /* Attribute being read and the snapshot its read started with */
+        Object attribute;
+        byte[] value;
+        /* Values of this host only, see setHostValue() */
+        final HashMap<Object, byte[]> values = new HashMap<>();
+
+        synchronized void pin(Object attribute, byte[] value) {
+            this.attribute = attribute;
+            this.value = value;
+        }
+    }
+}
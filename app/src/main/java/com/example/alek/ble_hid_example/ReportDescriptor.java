@@ -0,0 +1,259 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/*
+ * Typed builder of a HID report descriptor (Report Map).
+ *
+ * Items are encoded with the smallest data size which holds their value. While the main items
+ * are added, the builder counts the bits of every input and feature report, so field(rf) binds
+ * a ReportField to the bit where the next input item starts. build() checks that the
+ * collections are closed and every bound field fits its report, and returns the descriptor
+ * bytes together with the field layout (ReportLayout) - both come from one definition.
+ *
+ * Relative fields have to be whole bytes - queued motion is merged as signed bytes.
+ */
+final class ReportDescriptor {
+    /* Usage pages */
+    final static public int PAGE_GENERIC_DESKTOP = 0x01;
+    final static public int PAGE_KEYBOARD = 0x07;
+    final static public int PAGE_BUTTON = 0x09;
+    final static public int PAGE_CONSUMER = 0x0C;
+    final static public int PAGE_DIGITIZER = 0x0D;
+
+    /* Collection types */
+    final static public int COLLECTION_PHYSICAL = 0x00;
+    final static public int COLLECTION_APPLICATION = 0x01;
+    final static public int COLLECTION_LOGICAL = 0x02;
+
+    /* Units - system nibble and exponents of the dimensions, see unit() */
+    final static public int UNIT_NONE = 0x00;
+    final static public int UNIT_CENTIMETER = 0x11;     /* SI linear, length */
+
+    /* Input (and feature) item flags */
+    final static public int DATA_ARRAY_ABSOLUTE = 0x00;
+    final static public int CONSTANT = 0x01;
+    final static public int DATA_VARIABLE_ABSOLUTE = 0x02;
+    final static public int DATA_VARIABLE_RELATIVE = 0x06;
+
+    /* Item prefixes - tag and type, size bits cleared */
+    private final static int ITEM_INPUT = 0x80;
+    private final static int ITEM_FEATURE = 0xB0;
+    private final static int ITEM_COLLECTION = 0xA0;
+    private final static int ITEM_END_COLLECTION = 0xC0;
+    private final static int ITEM_USAGE_PAGE = 0x04;
+    private final static int ITEM_LOGICAL_MINIMUM = 0x14;
+    private final static int ITEM_LOGICAL_MAXIMUM = 0x24;
+    private final static int ITEM_PHYSICAL_MINIMUM = 0x34;
+    private final static int ITEM_PHYSICAL_MAXIMUM = 0x44;
+    private final static int ITEM_UNIT_EXPONENT = 0x54;
+    private final static int ITEM_UNIT = 0x64;
+    private final static int ITEM_REPORT_SIZE = 0x74;
+    private final static int ITEM_REPORT_ID = 0x84;
+    private final static int ITEM_REPORT_COUNT = 0x94;
+    private final static int ITEM_USAGE = 0x08;
+    private final static int ITEM_USAGE_MINIMUM = 0x18;
+    private final static int ITEM_USAGE_MAXIMUM = 0x28;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    /* Bits of every InputReport declared so far */
+    private final int[] report_bits = new int[InputReport.values().length];
+    /* Bits of the feature report with the same Report ID */
+    private final int[] feature_bits = new int[InputReport.values().length];
+    private final int[] offsets = new int[ReportField.values().length];
+    private InputReport report = null;
+    private int report_size = 0;
+    private int report_count = 0;
+    private int depth = 0;
+
+    ReportDescriptor() {
+        Arrays.fill(offsets, -1);
+    }
+
+    ReportDescriptor usagePage(int page) {
+        return item(ITEM_USAGE_PAGE, page, false);
+    }
+
+    ReportDescriptor usage(int usage) {
+        return item(ITEM_USAGE, usage, false);
+    }
+
+    ReportDescriptor usageMinimum(int usage) {
+        return item(ITEM_USAGE_MINIMUM, usage, false);
+    }
+
+    ReportDescriptor usageMaximum(int usage) {
+        return item(ITEM_USAGE_MAXIMUM, usage, false);
+    }
+
+    ReportDescriptor logicalMinimum(int value) {
+        return item(ITEM_LOGICAL_MINIMUM, value, true);
+    }
+
+    ReportDescriptor logicalMaximum(int value) {
+        return item(ITEM_LOGICAL_MAXIMUM, value, true);
+    }
+
+    ReportDescriptor physicalMinimum(int value) {
+        return item(ITEM_PHYSICAL_MINIMUM, value, true);
+    }
+
+    ReportDescriptor physicalMaximum(int value) {
+        return item(ITEM_PHYSICAL_MAXIMUM, value, true);
+    }
+
+    /* Physical values are in unit * 10^exponent, the exponent is a 4-bit signed nibble */
+    ReportDescriptor unitExponent(int exponent) {
+        return item(ITEM_UNIT_EXPONENT, exponent & 0x0f, false);
+    }
+
+    ReportDescriptor unit(int unit) {
+        return item(ITEM_UNIT, unit, false);
+    }
+
+    ReportDescriptor reportSize(int bits) {
+        report_size = bits;
+        return item(ITEM_REPORT_SIZE, bits, false);
+    }
+
+    ReportDescriptor reportCount(int count) {
+        report_count = count;
+        return item(ITEM_REPORT_COUNT, count, false);
+    }
+
+    /* Following main items belong to the report */
+    ReportDescriptor reportId(InputReport report) {
+        this.report = report;
+        return item(ITEM_REPORT_ID, report.report_id, false);
+    }
+
+    ReportDescriptor collection(int type) {
+        depth++;
+        return item(ITEM_COLLECTION, type, false);
+    }
+
+    ReportDescriptor endCollection() {
+        if (--depth < 0) {
+            throw new IllegalStateException("End Collection without Collection");
+        }
+
+        out.write(ITEM_END_COLLECTION);
+        return this;
+    }
+
+    /* Input item of report_count fields of report_size bits each */
+    ReportDescriptor input(int flags) {
+        if (report == null) {
+            throw new IllegalStateException("Input item before Report ID");
+        }
+
+        report_bits[report.ordinal()] += report_size * report_count;
+        return item(ITEM_INPUT, flags, false);
+    }
+
+    /* Feature item of report_count fields of report_size bits each */
+    ReportDescriptor feature(int flags) {
+        if (report == null) {
+            throw new IllegalStateException("Feature item before Report ID");
+        }
+
+        feature_bits[report.ordinal()] += report_size * report_count;
+        return item(ITEM_FEATURE, flags, false);
+    }
+
+    /* The field starts where the next input item of the current report starts */
+    ReportDescriptor field(ReportField rf) {
+        return field(rf, 0);
+    }
+
+    /* The field starts at the index-th element of the next input item, report_size bits each */
+    ReportDescriptor field(ReportField rf, int index) {
+        int bit;
+
+        if (report != rf.report) {
+            throw new IllegalStateException(rf + " bound outside of its report");
+        }
+
+        bit = report_bits[report.ordinal()] + index * report_size;
+
+        if (rf.relative && (bit % 8 != 0 || rf.bit_size % 8 != 0)) {
+            throw new IllegalStateException(rf + " is relative but not whole bytes");
+        }
+
+        offsets[rf.ordinal()] = bit;
+        return this;
+    }
+
+    ReportLayout build() {
+        int[] lengths = new int[report_bits.length];
+        int[] feature_lengths = new int[feature_bits.length];
+        byte[][] relative = new byte[report_bits.length][];
+
+        if (depth != 0) {
+            throw new IllegalStateException("Collection not closed");
+        }
+
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = (report_bits[i] + 7) / 8;
+            feature_lengths[i] = (feature_bits[i] + 7) / 8;
+            relative[i] = new byte[lengths[i]];
+        }
+
+        for (ReportField rf : ReportField.values()) {
+            int offset = offsets[rf.ordinal()];
+
+            if (offset < 0) {
+                continue;
+            }
+
+            if (offset + rf.bit_size > report_bits[rf.report.ordinal()]) {
+                throw new IllegalStateException(rf + " does not fit its report");
+            }
+
+            for (int bit = offset; rf.relative && bit < offset + rf.bit_size; bit++) {
+                relative[rf.report.ordinal()][bit / 8] |= 1 << (bit % 8);
+            }
+        }
+
+        return new ReportLayout(out.toByteArray(), offsets.clone(), lengths, feature_lengths,
+                relative);
+    }
+
+    /* Short item with the smallest data size holding the value */
+    private ReportDescriptor item(int prefix, int value, boolean signed) {
+        int size;
+
+        if (signed ? value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE : (value & ~0xff) == 0) {
+            size = 1;
+        } else if (signed ? value >= Short.MIN_VALUE && value <= Short.MAX_VALUE :
+                (value & ~0xffff) == 0) {
+            size = 2;
+        } else {
+            size = 4;
+        }
+
+        out.write(prefix | (size == 4 ? 3 : size));
+
+        for (int i = 0; i < size; i++) {
+            out.write(value >> (8 * i));
+        }
+
+        return this;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+/*
+ * Field of an input report; bit_offset is relative to the report of its feature (InputReport)
+ * and comes from the Report Map definition of the current feature set - see ReportMap. Fields
+ * may start at any bit and have any width up to 64 bits, values are written by ReportState.
+ */
+enum ReportField {
+    /* Consumer */
+    REPORT_FIELD_CONSUMER_CONTROL(ReportField.REP_CONSUMER, 16),
+    REPORT_FIELD_LAUNCHER_BUTTON(ReportField.REP_CONSUMER, 9),    // usages up to 0x1C7
+    REPORT_FIELD_CONTROL_BUTTON(ReportField.REP_CONSUMER, 10),    // usages up to 0x29C
+    /* Keyboard */
+    REPORT_FIELD_KEYBOARD_META_KEYS(ReportField.REP_KEYBOARD, 8),
+    REPORT_FIELD_KEYBOARD_KEYS(ReportField.REP_KEYBOARD, 8),
+    REPORT_FIELD_KEYBOARD_ALL(ReportField.REP_KEYBOARD, 16),    // REPORT_FIELD_KEYBOARD_META_KEYS + REPORT_FIELD_KEYBOARD_KEYS
+    REPORT_FIELD_KEYBOARD_ROLLOVER(ReportField.REP_KEYBOARD, 56),   // REPORT_FIELD_KEYBOARD_META_KEYS + all 6 key slots
+    REPORT_FIELD_KEYBOARD_NKRO_LOW(ReportField.REP_KEYBOARD, 64),   // NKRO bitmap, usages 0x04 - 0x43
+    REPORT_FIELD_KEYBOARD_NKRO_HIGH(ReportField.REP_KEYBOARD, 40), // NKRO bitmap, usages 0x44 - 0x6B
+    /* Mouse */
+    REPORT_FIELD_MOUSE_BUTTONS(ReportField.REP_MOUSE, 5),
+    REPORT_FIELD_MOUSE_X(ReportField.REP_MOUSE, 8, true),
+    REPORT_FIELD_MOUSE_Y(ReportField.REP_MOUSE, 8, true),
+    REPORT_FIELD_MOUSE_BUTTONS_XY(ReportField.REP_MOUSE, 24),
+    REPORT_FIELD_MOUSE_XY(ReportField.REP_MOUSE, 16, true),
+    REPORT_FIELD_MOUSE_SCROLL(ReportField.REP_MOUSE, 8, true),
+    /* High resolution mouse - these replace X, Y and the wheel above, see REP_MOUSE_HIRES */
+    REPORT_FIELD_MOUSE_HIRES_X(ReportField.REP_MOUSE, 16, true),
+    REPORT_FIELD_MOUSE_HIRES_Y(ReportField.REP_MOUSE, 16, true),
+    REPORT_FIELD_MOUSE_HIRES_XY(ReportField.REP_MOUSE, 32, true),
+    REPORT_FIELD_MOUSE_HIRES_SCROLL(ReportField.REP_MOUSE, 16, true),   // 1 / WHEEL_RESOLUTION detents
+    REPORT_FIELD_MOUSE_HIRES_PAN(ReportField.REP_MOUSE, 16, true),      // AC Pan, as above
+    /* Digitizer - see DigitizerReport */
+    REPORT_FIELD_DIGITIZER_CONTACT_1(ReportField.REP_DIGITIZER, 28),
+    REPORT_FIELD_DIGITIZER_CONTACT_2(ReportField.REP_DIGITIZER, 28),
+    REPORT_FIELD_DIGITIZER_CONTACT_COUNT(ReportField.REP_DIGITIZER, 8),
+    REPORT_FIELD_DIGITIZER_ALL(ReportField.REP_DIGITIZER, 64);  // both contacts + the count
+
+    /* Queued motion older than that is not worth sending anymore */
+    final static public int MOTION_MAX_AGE_MS = 50;
+
+    final static public int REP_CONSUMER = 0x01;
+    final static public int REP_MOUSE = 0x02;
+    final static public int REP_KEYBOARD = 0x04;
+    final static public int REP_BASIC = 0x08;
+    /* Keyboard report carries the NKRO bitmap after the key slots - see nkroField() */
+    final static public int REP_KEYBOARD_NKRO = 0x10;
+    /* Mouse report carries 16-bit X / Y, a high resolution wheel and AC Pan */
+    final static public int REP_MOUSE_HIRES = 0x20;
+    /* Absolute touch screen with DigitizerReport.CONTACTS contacts */
+    final static public int REP_DIGITIZER = 0x40;
+
+    /* Resolution Multiplier of the high resolution wheel and pan - steps per detent */
+    final static public int WHEEL_RESOLUTION = 8;
+
+    /*
+     * The report map is fixed before any MTU exchange, so the whole keyboard report has to fit
+     * the payload of the default ATT MTU (23 - 3 bytes of header): modifiers, 6 key slots used
+     * by text typing and boot hosts, and a bitmap of 13 bytes.
+     */
+    final static public int NKRO_FIRST_USAGE = 0x04;
+    final static public int NKRO_KEYS = 104;
+    /* REP_* feature whose report carries the field */
+    public final int feature;
+    public final InputReport report;
+    public final int bit_size;
+    /* Field carries only relative (delta) values - reports with it may be merged */
+    public final boolean relative;
+    /* Reports older than that are dropped, 0 - never dropped because of age */
+    public final int max_age_ms;
+    /* Offset within the feature's report, -1 if the field is not present */
+    public int bit_offset = -1;
+    /* Byte holding the first bit of the field, -1 if the field is not present */
+    public int byte_offset = -1;
+
+    ReportField(int feature, int bit_size, boolean relative) {
+        this.feature = feature;
+        this.report = InputReport.forFeature(feature);
+        this.bit_size = bit_size;
+        this.relative = relative;
+        this.max_age_ms = relative ? MOTION_MAX_AGE_MS : 0;
+    }
+
+    ReportField(int feature, int bit_size) {
+        this(feature, bit_size, false);
+    }
+
+    static void updateValues(int features) {
+        ReportLayout layout = ReportMap.layout(features);
+
+        for (ReportField rf : values()) {
+            rf.bit_offset = layout.offset(rf);
+            rf.byte_offset = rf.bit_offset < 0 ? -1 : rf.bit_offset / 8;
+        }
+
+        for (InputReport report : InputReport.values()) {
+            report.length = layout.length(report);
+            report.relative_mask = layout.relativeMask(report);
+            report.feature_length = layout.featureLength(report);
+        }
+    }
+
+    /* Bitmap field which carries the key in the NKRO report, null if it has no bit there */
+    static ReportField nkroField(int usage) {
+        int bit = usage - NKRO_FIRST_USAGE;
+
+        if (bit < 0 || bit >= NKRO_KEYS || REPORT_FIELD_KEYBOARD_NKRO_LOW.byte_offset < 0) {
+            return null;
+        }
+
+        return bit < REPORT_FIELD_KEYBOARD_NKRO_LOW.bit_size ?
+                REPORT_FIELD_KEYBOARD_NKRO_LOW : REPORT_FIELD_KEYBOARD_NKRO_HIGH;
+    }
+
+    /* Signed value of the relative field in the report, little endian */
+    int getRelative(byte[] value) {
+        int v = 0;
+
+        for (int i = bit_size / 8 - 1; i >= 0; i--) {
+            v = (v << 8) | (value[byte_offset + i] & 0xff);
+        }
+
+        return (v << (32 - bit_size)) >> (32 - bit_size);
+    }
+
+    void setRelative(byte[] value, int v) {
+        for (int i = 0; i < bit_size / 8; i++) {
+            value[byte_offset + i] = (byte) (v >> (8 * i));
+        }
+    }
+
+    /* Largest delta the relative field carries, either way */
+    int relativeLimit() {
+        return (1 << (bit_size - 1)) - 1;
+    }
+
+    /* Mask of the key within nkroField(usage) */
+    static long nkroBit(int usage) {
+        int bit = usage - NKRO_FIRST_USAGE;
+
+        return 1L << (bit % REPORT_FIELD_KEYBOARD_NKRO_LOW.bit_size);
+    }
+}
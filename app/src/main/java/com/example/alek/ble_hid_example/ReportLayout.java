@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+/* Report Map of a feature set and the layout of its input reports, see ReportDescriptor */
+final class ReportLayout {
+    /* Shared by every user of the layout - never modified */
+    final byte[] descriptor;
+    /* Bit offset of every ReportField within its report, -1 if not present */
+    private final int[] offsets;
+    /* Length of every InputReport, 0 if not present */
+    private final int[] lengths;
+    /* Length of the feature report of every InputReport's Report ID, 0 if there is none */
+    private final int[] feature_lengths;
+    /* Bits of relative fields of every InputReport */
+    private final byte[][] relative;
+
+    ReportLayout(byte[] descriptor, int[] offsets, int[] lengths, int[] feature_lengths,
+                 byte[][] relative) {
+        this.descriptor = descriptor;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.feature_lengths = feature_lengths;
+        this.relative = relative;
+    }
+
+    int offset(ReportField rf) {
+        return offsets[rf.ordinal()];
+    }
+
+    int length(InputReport report) {
+        return lengths[report.ordinal()];
+    }
+
+    int featureLength(InputReport report) {
+        return feature_lengths[report.ordinal()];
+    }
+
+    /* Shared as well - never modified */
+    byte[] relativeMask(InputReport report) {
+        return relative[report.ordinal()];
+    }
+}
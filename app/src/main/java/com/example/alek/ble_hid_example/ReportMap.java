@@ -0,0 +1,455 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.example.alek.ble_hid_example.ReportDescriptor.COLLECTION_APPLICATION;
+import static com.example.alek.ble_hid_example.ReportDescriptor.COLLECTION_LOGICAL;
+import static com.example.alek.ble_hid_example.ReportDescriptor.COLLECTION_PHYSICAL;
+import static com.example.alek.ble_hid_example.ReportDescriptor.CONSTANT;
+import static com.example.alek.ble_hid_example.ReportDescriptor.DATA_ARRAY_ABSOLUTE;
+import static com.example.alek.ble_hid_example.ReportDescriptor.DATA_VARIABLE_ABSOLUTE;
+import static com.example.alek.ble_hid_example.ReportDescriptor.DATA_VARIABLE_RELATIVE;
+import static com.example.alek.ble_hid_example.ReportDescriptor.PAGE_BUTTON;
+import static com.example.alek.ble_hid_example.ReportDescriptor.PAGE_CONSUMER;
+import static com.example.alek.ble_hid_example.ReportDescriptor.PAGE_DIGITIZER;
+import static com.example.alek.ble_hid_example.ReportDescriptor.PAGE_GENERIC_DESKTOP;
+import static com.example.alek.ble_hid_example.ReportDescriptor.PAGE_KEYBOARD;
+import static com.example.alek.ble_hid_example.ReportDescriptor.UNIT_CENTIMETER;
+import static com.example.alek.ble_hid_example.ReportDescriptor.UNIT_NONE;
+
+/*
+ * HID Report Map (report descriptor) for the enabled features - see ReportField.REP_*. Every
+ * feature is a top level collection with its own Report ID (InputReport.report_id).
+ *
+ * The definitions below produce the descriptor and the offsets of the ReportFields at once,
+ * see ReportDescriptor. Compiled layouts are cached by the feature mask. Fields are packed as
+ * tight as their logical ranges allow, e.g. the array usages of the consumer report.
+ */
+final class ReportMap {
+    /* Resolution Multiplier bits of the mouse feature report, see mouseHighResolution() */
+    final static public int MULTIPLIER_WHEEL = 0x03;
+    final static public int MULTIPLIER_PAN = 0x0C;
+
+    private final static ConcurrentHashMap<Integer, ReportLayout> layouts =
+            new ConcurrentHashMap<>();
+
+    private ReportMap() {
+    }
+
+    static byte[] build(int features) {
+        return layout(features).descriptor;
+    }
+
+    /* Initial value of the feature report with the Report ID of the input report */
+    static byte[] featureReport(InputReport report) {
+        byte[] value = new byte[report.feature_length];
+
+        if (report == InputReport.INPUT_REPORT_DIGITIZER && value.length > 0) {
+            value[0] = DigitizerReport.CONTACTS;    /* Contact Count Maximum */
+        }
+
+        return value;
+    }
+
+    static ReportLayout layout(int features) {
+        ReportLayout layout = layouts.get(features);
+
+        if (layout == null) {
+            layout = compile(features);
+            layouts.putIfAbsent(features, layout);
+        }
+
+        return layout;
+    }
+
+    private static ReportLayout compile(int features) {
+        ReportDescriptor d = new ReportDescriptor();
+
+        if ((features & ReportField.REP_BASIC) == ReportField.REP_BASIC) {
+            basic(d);
+            return d.build();
+        }
+
+        if ((features & ReportField.REP_CONSUMER) == ReportField.REP_CONSUMER) {
+            consumer(d);
+        }
+
+        if ((features & ReportField.REP_KEYBOARD) == ReportField.REP_KEYBOARD) {
+            keyboard(d, (features & ReportField.REP_KEYBOARD_NKRO) ==
+                    ReportField.REP_KEYBOARD_NKRO);
+        }
+
+        if ((features & ReportField.REP_MOUSE) == ReportField.REP_MOUSE) {
+            mouse(d, (features & ReportField.REP_MOUSE_HIRES) ==
+                    ReportField.REP_MOUSE_HIRES);
+        }
+
+        if ((features & ReportField.REP_DIGITIZER) == ReportField.REP_DIGITIZER) {
+            digitizer(d);
+        }
+
+        return d.build();
+    }
+
+    /* Basic mode - 11 consumer controls only */
+    private static void basic(ReportDescriptor d) {
+        d.usagePage(PAGE_CONSUMER)
+                .usage(0x01)                    /* Consumer Control                 */
+                .collection(COLLECTION_APPLICATION)
+                .reportId(InputReport.INPUT_REPORT_CONSUMER)
+                .usagePage(PAGE_CONSUMER)
+                .logicalMinimum(0)
+                .logicalMaximum(1)
+                .reportSize(1)
+                .reportCount(11)
+
+                .usage(0x6F)                    /* 1       Bright Up                */
+                .usage(0x70)                    /* 2       Bright Down              */
+
+                .usage(0xB5)                    /* 3       Scan Next Track          */
+                .usage(0xB6)                    /* 4       Scan Previous Track      */
+                .usage(0xB7)                    /* 5       Stop                     */
+                .usage(0xCD)                    /* 6       Play / Pause             */
+
+                .usage(0xE2)                    /* 7       Mute                     */
+                .usage(0xE9)                    /* 8       Volume Up                */
+                .usage(0xEA)                    /* 9       Volume Down              */
+
+                .usage(0xB8)                    /* 10      Eject                    */
+                .usage(0xB8)                    /* 11      Snapshot                 */
+
+                .field(ReportField.REPORT_FIELD_CONSUMER_CONTROL)
+                .input(DATA_VARIABLE_ABSOLUTE)
+                .reportCount(5)
+                .input(CONSTANT)
+                .endCollection();
+    }
+
+    private static void consumer(ReportDescriptor d) {
+        d.usagePage(PAGE_CONSUMER)
+                .usage(0x01)                    /* Consumer Control                 */
+                .collection(COLLECTION_APPLICATION)
+                .reportId(InputReport.INPUT_REPORT_CONSUMER)
+                .collection(COLLECTION_LOGICAL)
+
+                /*========================== Consumer control ==========================*/
+                .usagePage(PAGE_CONSUMER)
+                .logicalMinimum(0)
+                .logicalMaximum(1)
+                .reportSize(1)
+                .reportCount(16)
+
+                .usage(0x6F)                    /* 1       Bright Up                */
+                .usage(0x70)                    /* 2       Bright Down              */
+
+                .usage(0xB5)                    /* 3       Scan Next Track          */
+                .usage(0xB6)                    /* 4       Scan Previous Track      */
+                .usage(0xB7)                    /* 5       Stop                     */
+                .usage(0xCD)                    /* 6       Play / Pause             */
+
+                .usage(0xE2)                    /* 7       Mute                     */
+                .usage(0xE9)                    /* 8       Volume Up                */
+                .usage(0xEA)                    /* 9       Volume Down              */
+
+                .usage(0xB8)                    /* 10      Eject                    */
+                .usage(0x65)                    /* 11      Snapshot                 */
+
+                .usagePage(PAGE_GENERIC_DESKTOP)
+                .usage(0x82)                    /* 12      System Sleep             */
+                .usage(0xA8)                    /* 13      System Hibernate         */
+                .usage(0x81)                    /* 14      System Power Down        */
+                .usage(0x8E)                    /* 15      System Cold Restart      */
+                .usage(0x8F)                    /* 16      System Warm Restart      */
+
+                .field(ReportField.REPORT_FIELD_CONSUMER_CONTROL)
+                .input(DATA_VARIABLE_ABSOLUTE)
+
+                /*==================== Application Launcher Buttons ====================*/
+                .usagePage(PAGE_CONSUMER)
+                .reportCount(1)
+                .reportSize(9)
+                .logicalMinimum(0x181)
+                .logicalMaximum(0x1C7)
+                .usagePage(PAGE_CONSUMER)
+                .usageMinimum(0x181)
+                .usageMaximum(0x1C7)
+                .field(ReportField.REPORT_FIELD_LAUNCHER_BUTTON)
+                .input(DATA_ARRAY_ABSOLUTE)
+
+                /*==================== Application Control Buttons =====================*/
+                .usagePage(PAGE_CONSUMER)
+                .reportCount(1)
+                .reportSize(10)
+                .logicalMinimum(0x201)
+                .logicalMaximum(0x29C)
+                .usagePage(PAGE_CONSUMER)
+                .usageMinimum(0x201)
+                .usageMaximum(0x29C)
+                .field(ReportField.REPORT_FIELD_CONTROL_BUTTON)
+                .input(DATA_ARRAY_ABSOLUTE)
+                .reportSize(5)
+                .input(CONSTANT)
+                .endCollection()
+                .endCollection();
+    }
+
+    private static void keyboard(ReportDescriptor d, boolean nkro) {
+        d.usagePage(PAGE_GENERIC_DESKTOP)
+                .usage(0x06)                    /* Keyboard                         */
+                .collection(COLLECTION_APPLICATION)
+                .reportId(InputReport.INPUT_REPORT_KEYBOARD)
+
+                /*============================ Modifiers ===============================*/
+                .usagePage(PAGE_KEYBOARD)
+                .logicalMinimum(0)
+                .logicalMaximum(1)
+                .reportSize(1)
+                .reportCount(8)
+
+                .usage(0xE0)                    /* 1       LeftControl              */
+                .usage(0xE1)                    /* 2       LeftShift                */
+                .usage(0xE2)                    /* 3       LeftAlt                  */
+                .usage(0xE3)                    /* 4       LeftGUI                  */
+                .usage(0xE4)                    /* 5       RightControl             */
+                .usage(0xE5)                    /* 6       RightShift               */
+                .usage(0xE6)                    /* 7       RightAlt                 */
+                .usage(0xE7)                    /* 8       RightGUI                 */
+                .field(ReportField.REPORT_FIELD_KEYBOARD_META_KEYS)
+                .field(ReportField.REPORT_FIELD_KEYBOARD_ALL)
+                .field(ReportField.REPORT_FIELD_KEYBOARD_ROLLOVER)
+                .input(DATA_VARIABLE_ABSOLUTE)
+
+                /*============================ Key slots ===============================*/
+                .usagePage(PAGE_KEYBOARD)
+                .reportCount(6)
+                .reportSize(8)
+                .logicalMinimum(0x04)
+                .logicalMaximum(0xDF)
+                .usagePage(PAGE_KEYBOARD)
+                .usageMinimum(0x04)
+                .usageMaximum(0xDF)
+                .field(ReportField.REPORT_FIELD_KEYBOARD_KEYS)
+                .input(DATA_ARRAY_ABSOLUTE);
+
+        if (nkro) {
+            /*========================= NKRO key bitmap ============================*/
+            d.usagePage(PAGE_KEYBOARD)
+                    .logicalMinimum(0)
+                    .logicalMaximum(1)
+                    .reportSize(1)
+                    .reportCount(ReportField.NKRO_KEYS)
+                    .usageMinimum(ReportField.NKRO_FIRST_USAGE)
+                    .usageMaximum(ReportField.NKRO_FIRST_USAGE + ReportField.NKRO_KEYS - 1)
+                    .field(ReportField.REPORT_FIELD_KEYBOARD_NKRO_LOW)
+                    .field(ReportField.REPORT_FIELD_KEYBOARD_NKRO_HIGH,
+                            ReportField.REPORT_FIELD_KEYBOARD_NKRO_LOW.bit_size)
+                    .input(DATA_VARIABLE_ABSOLUTE);
+        }
+
+        d.endCollection();
+    }
+
+    private static void mouse(ReportDescriptor d, boolean hires) {
+        d.usagePage(PAGE_GENERIC_DESKTOP)
+                .usage(0x02)                    /* Mouse                            */
+                .collection(COLLECTION_APPLICATION)
+                .reportId(InputReport.INPUT_REPORT_MOUSE)
+                .usage(0x01)                    /* Pointer                          */
+                .collection(COLLECTION_PHYSICAL)
+
+                /*============================= Buttons ================================*/
+                .usagePage(PAGE_BUTTON)
+                .usageMinimum(1)
+                .usageMaximum(5)
+                .logicalMinimum(0)
+                .logicalMaximum(1)
+                .reportCount(5)
+                .reportSize(1)
+                .field(ReportField.REPORT_FIELD_MOUSE_BUTTONS);
+
+        if (!hires) {
+            d.field(ReportField.REPORT_FIELD_MOUSE_BUTTONS_XY);
+        }
+
+        d.input(DATA_VARIABLE_ABSOLUTE)
+                .reportCount(1)
+                .reportSize(3)
+                .input(CONSTANT);
+
+        if (hires) {
+            mouseHighResolution(d);
+            return;
+        }
+
+        d
+                /*=============================== X, Y =================================*/
+                .usagePage(PAGE_GENERIC_DESKTOP)
+                .usage(0x30)                    /* X                                */
+                .usage(0x31)                    /* Y                                */
+                .logicalMinimum(-127)
+                .logicalMaximum(127)
+                .reportSize(8)
+                .reportCount(2)
+                .field(ReportField.REPORT_FIELD_MOUSE_X)
+                .field(ReportField.REPORT_FIELD_MOUSE_XY)
+                .field(ReportField.REPORT_FIELD_MOUSE_Y, 1)
+                .input(DATA_VARIABLE_RELATIVE)
+
+                /*=============================== Wheel ================================*/
+                .usage(0x38)                    /* Wheel                            */
+                .logicalMinimum(-127)
+                .logicalMaximum(127)
+                .reportSize(8)
+                .reportCount(1)
+                .field(ReportField.REPORT_FIELD_MOUSE_SCROLL)
+                .input(DATA_VARIABLE_RELATIVE)
+                .endCollection()
+                .endCollection();
+    }
+
+    /*
+     * 16-bit X / Y, wheel and AC Pan. The wheel and pan are in logical collections with their
+     * Resolution Multiplier; the host enables a multiplier by writing 1 to it (feature report,
+     * MULTIPLIER_WHEEL / MULTIPLIER_PAN bits), until then they count in whole detents.
+     */
+    private static void mouseHighResolution(ReportDescriptor d) {
+        d
+                /*=============================== X, Y =================================*/
+                .usagePage(PAGE_GENERIC_DESKTOP)
+                .usage(0x30)                    /* X                                */
+                .usage(0x31)                    /* Y                                */
+                .logicalMinimum(-32767)
+                .logicalMaximum(32767)
+                .reportSize(16)
+                .reportCount(2)
+                .field(ReportField.REPORT_FIELD_MOUSE_HIRES_X)
+                .field(ReportField.REPORT_FIELD_MOUSE_HIRES_XY)
+                .field(ReportField.REPORT_FIELD_MOUSE_HIRES_Y, 1)
+                .input(DATA_VARIABLE_RELATIVE)
+                .endCollection()
+
+                /*=============================== Wheel ================================*/
+                .collection(COLLECTION_LOGICAL)
+                .usage(0x48)                    /* Resolution Multiplier            */
+                .logicalMinimum(0)
+                .logicalMaximum(1)
+                .physicalMinimum(1)
+                .physicalMaximum(ReportField.WHEEL_RESOLUTION)
+                .reportSize(2)
+                .reportCount(1)
+                .feature(DATA_VARIABLE_ABSOLUTE)
+                .usage(0x38)                    /* Wheel                            */
+                .logicalMinimum(-32767)
+                .logicalMaximum(32767)
+                .physicalMinimum(0)
+                .physicalMaximum(0)
+                .reportSize(16)
+                .field(ReportField.REPORT_FIELD_MOUSE_HIRES_SCROLL)
+                .input(DATA_VARIABLE_RELATIVE)
+                .endCollection()
+
+                /*============================== AC Pan ================================*/
+                .collection(COLLECTION_LOGICAL)
+                .usage(0x48)                    /* Resolution Multiplier            */
+                .logicalMinimum(0)
+                .logicalMaximum(1)
+                .physicalMinimum(1)
+                .physicalMaximum(ReportField.WHEEL_RESOLUTION)
+                .reportSize(2)
+                .feature(DATA_VARIABLE_ABSOLUTE)
+                .reportSize(4)
+                .feature(CONSTANT)
+                .usagePage(PAGE_CONSUMER)
+                .usage(0x238)                   /* AC Pan                           */
+                .logicalMinimum(-32767)
+                .logicalMaximum(32767)
+                .physicalMinimum(0)
+                .physicalMaximum(0)
+                .reportSize(16)
+                .field(ReportField.REPORT_FIELD_MOUSE_HIRES_PAN)
+                .input(DATA_VARIABLE_RELATIVE)
+                .endCollection()
+                .endCollection();
+    }
+
+    /* Touch screen - a logical collection per contact, see DigitizerReport */
+    private static void digitizer(ReportDescriptor d) {
+        ReportField[] contacts = {
+                ReportField.REPORT_FIELD_DIGITIZER_CONTACT_1,
+                ReportField.REPORT_FIELD_DIGITIZER_CONTACT_2,
+        };
+
+        d.usagePage(PAGE_DIGITIZER)
+                .usage(0x04)                    /* Touch Screen                     */
+                .collection(COLLECTION_APPLICATION)
+                .reportId(InputReport.INPUT_REPORT_DIGITIZER)
+                .field(ReportField.REPORT_FIELD_DIGITIZER_ALL);
+
+        for (ReportField contact : contacts) {
+            d.usagePage(PAGE_DIGITIZER)
+                    .usage(0x22)                /* Finger                           */
+                    .collection(COLLECTION_LOGICAL)
+                    .field(contact)
+
+                    /*=========================== Tip Switch ===========================*/
+                    .usage(0x42)                /* Tip Switch                       */
+                    .logicalMinimum(0)
+                    .logicalMaximum(1)
+                    .reportSize(1)
+                    .reportCount(1)
+                    .input(DATA_VARIABLE_ABSOLUTE)
+
+                    /*======================= Contact Identifier =======================*/
+                    .usage(0x51)                /* Contact Identifier               */
+                    .logicalMaximum((1 << DigitizerReport.CONTACT_ID_BITS) - 1)
+                    .reportSize(DigitizerReport.CONTACT_ID_BITS)
+                    .input(DATA_VARIABLE_ABSOLUTE)
+
+                    /*============================= X, Y ===============================*/
+                    .usagePage(PAGE_GENERIC_DESKTOP)
+                    .usage(0x30)                /* X                                */
+                    .usage(0x31)                /* Y                                */
+                    .logicalMaximum(DigitizerReport.AXIS_MAX)
+                    .physicalMinimum(0)
+                    .physicalMaximum(DigitizerReport.PAD_SIZE)
+                    .unitExponent(-2)           /* 0.1 mm                           */
+                    .unit(UNIT_CENTIMETER)
+                    .reportSize(DigitizerReport.AXIS_BITS)
+                    .reportCount(2)
+                    .input(DATA_VARIABLE_ABSOLUTE)
+                    .physicalMaximum(0)
+                    .unitExponent(0)
+                    .unit(UNIT_NONE)
+                    .endCollection();
+        }
+
+        d.usagePage(PAGE_DIGITIZER)
+                /*========================== Contact Count =============================*/
+                .usage(0x54)                    /* Contact Count                    */
+                .logicalMaximum(DigitizerReport.CONTACTS)
+                .reportSize(8)
+                .reportCount(1)
+                .field(ReportField.REPORT_FIELD_DIGITIZER_CONTACT_COUNT)
+                .input(DATA_VARIABLE_ABSOLUTE)
+
+                /*====================== Contact Count Maximum =========================*/
+                .usage(0x55)                    /* Contact Count Maximum            */
+                .feature(DATA_VARIABLE_ABSOLUTE)
+                .endCollection();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+/*
+ * Current input report of a single host, one per InputReport.
+ *
+ * Absolute fields (buttons, keys, controls) keep their value until they are changed, so an
+ * update of one field never resets the others. Relative fields (X, Y, wheel) hold the delta
+ * which has not been sent yet and are cleared by every snapshot.
+ */
+class ReportState {
+    final InputReport report;
+    private final byte[] value;
+    /* Bits of relative fields, see InputReport.relative_mask */
+    private final byte[] relative;
+
+    ReportState(InputReport report) {
+        this.report = report;
+        value = new byte[report.length];
+        relative = report.relative_mask;
+    }
+
+    /*
+     * Replace the bits selected by mask with the ones from bits; bit 0 of both is the first bit
+     * of the field, which may start anywhere within a byte. Returns true if the report has to
+     * be sent - some absolute bit changed or there is a non-zero delta.
+     */
+    boolean update(ReportField rf, long bits, long mask) {
+        boolean changed = false;
+        int first = rf.bit_offset >> 3;
+        int last = (rf.bit_offset + rf.bit_size - 1) >> 3;
+        int shift = rf.bit_offset & 7;
+
+        if (rf.report != report || rf.bit_offset < 0 || last >= value.length ||
+                relative.length != value.length) {
+            return false;
+        }
+
+        if (rf.bit_size < 64) {
+            mask &= (1L << rf.bit_size) - 1;
+        }
+        bits &= mask;
+
+        for (int i = first; i <= last; i++) {
+            int n = (i - first) * 8 - shift;
+            int m = (int) shiftRight(mask, n) & 0xff;
+            int b = (int) shiftRight(bits, n) & 0xff;
+            int old = value[i] & 0xff;
+            int next = (old & ~m) | b;
+
+            changed |= ((next ^ old) & m & ~relative[i]) != 0 || (next & m & relative[i]) != 0;
+            value[i] = (byte) next;
+        }
+
+        return changed;
+    }
+
+    /* Copy the whole report into out; pending deltas are consumed */
+    void snapshot(byte[] out) {
+        System.arraycopy(value, 0, out, 0, value.length);
+
+        for (int i = 0; i < value.length; i++) {
+            value[i] &= ~relative[i];
+        }
+    }
+
+    /* Bits of v starting at bit n, negative n moves them up */
+    private static long shiftRight(long v, int n) {
+        if (n >= 64) {
+            return 0;
+        }
+
+        return n >= 0 ? v >>> n : v << -n;
+    }
+}
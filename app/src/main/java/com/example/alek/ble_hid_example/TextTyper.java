@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Types text read from a Reader (file, clipboard, content URI) through the TypingEngine.
+ *
+ * Characters are pulled in chunks of BUFFER_SIZE and compiled only when the transmitter has
+ * room for them - while its backlog is at HIGH_WATER_MARK the typer waits, so the memory used
+ * does not depend on the length of the text. Held keys are released before the typer waits for
+ * room or for more text, otherwise the host would auto-repeat them during the stall. Progress is
+ * reported every PROGRESS_INTERVAL_MS and once more when typing ends. All listener calls come
+ * from the typing thread.
+ */
+class TextTyper implements Runnable {
+    interface Output {
+        /* Queue one REPORT_FIELD_KEYBOARD_ROLLOVER report */
+        void send(long report);
+
+        /* Reports queued but not sent yet */
+        int getBacklog();
+    }
+
+    interface Listener {
+        /* total is -1 if the length of the text is not known */
+        void onProgress(TextTyper typer, long typed, long total, float charsPerSecond);
+
+        /* error is null unless reading failed */
+        void onFinished(TextTyper typer, long typed, boolean cancelled, IOException error);
+    }
+
+    /* Reports which may wait in the transmitter before typing pauses */
+    final static public int HIGH_WATER_MARK = 16;
+    private static final int BUFFER_SIZE = 4096;
+    private static final long PROGRESS_INTERVAL_MS = 200;
+    private static final long BACKLOG_POLL_NS = 1000000L;
+
+    private final Reader reader;
+    private final long total;
+    private final Output output;
+    private final Listener listener;
+    private final TypingEngine engine = new TypingEngine();
+    private final long[] reports = new long[TypingEngine.MAX_REPORTS_PER_CHAR];
+    private volatile boolean cancelled = false;
+    private long typed = 0;
+    private long startTime;
+
+    TextTyper(Reader reader, long total, Output output, Listener listener) {
+        this.reader = reader;
+        this.total = total;
+        this.output = output;
+        this.listener = listener;
+    }
+
+    /* May be called from any thread; keys which are still held get released */
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public void run() {
+        char[] buffer = new char[BUFFER_SIZE];
+        IOException error = null;
+        long lastProgress;
+        int n;
+
+        startTime = System.nanoTime();
+        lastProgress = startTime;
+
+        try {
+            while (isRunning()) {
+                if (!reader.ready()) {
+                    send(engine.finish(reports));
+                }
+
+                if ((n = reader.read(buffer)) <= 0) {
+                    break;
+                }
+
+                for (int i = 0; i < n && waitForRoom(); i++) {
+                    long now;
+
+                    send(engine.type(buffer[i], reports));
+                    typed++;
+
+                    now = System.nanoTime();
+
+                    if (now - lastProgress >= PROGRESS_INTERVAL_MS * 1000000L) {
+                        lastProgress = now;
+                        reportProgress(now);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.e("BLE", "Reading text to type failed: " + e.getMessage());
+            error = e;
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                Log.e("BLE", "Closing text reader failed: " + e.getMessage());
+            }
+        }
+
+        send(engine.finish(reports));
+        reportProgress(System.nanoTime());
+
+        if (listener != null) {
+            listener.onFinished(this, typed, cancelled, error);
+        }
+    }
+
+    /*
+     * Blocks while the transmitter is backlogged, false if typing was cancelled meanwhile.
+     * With several hosts the backlog is the one of the most loaded host.
+     */
+    private boolean waitForRoom() {
+        while (isRunning() && output.getBacklog() >= HIGH_WATER_MARK) {
+            send(engine.finish(reports));
+            LockSupport.parkNanos(this, BACKLOG_POLL_NS);
+        }
+
+        return isRunning();
+    }
+
+    /* False once cancelled, an interrupt of the typing thread (shutdownNow()) cancels too */
+    private boolean isRunning() {
+        if (Thread.currentThread().isInterrupted()) {
+            cancelled = true;
+        }
+
+        return !cancelled;
+    }
+
+    private void send(int count) {
+        for (int i = 0; i < count; i++) {
+            output.send(reports[i]);
+        }
+    }
+
+    private void reportProgress(long now) {
+        long elapsed = now - startTime;
+
+        if (listener != null) {
+            listener.onProgress(this, typed, total,
+                    elapsed > 0 ? typed * 1e9f / elapsed : 0);
+        }
+    }
+}
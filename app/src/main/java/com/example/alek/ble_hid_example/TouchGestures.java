@@ -0,0 +1,332 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import android.view.MotionEvent;
+
+/*
+ * Multi-finger gestures of the mouse pad:
+ *
+ *   two fingers moving together - wheel and AC Pan, the content follows the fingers
+ *   two fingers pinching         - zoom, sent as Ctrl + wheel
+ *   three fingers swiping        - one shortcut per swipe, see SWIPE_*
+ *
+ * Two finger gestures are locked to scroll or zoom once the fingers travelled GESTURE_SLOP.
+ * Motion is gathered in 1 / ReportField.WHEEL_RESOLUTION detents and taken out once per
+ * report interval by take(), like MotionSampler - a few wheel reports per frame instead of one
+ * per MotionEvent; the fraction stays for the next report. Any change of the finger count
+ * rebases the positions, so a finger landing or lifting never makes the others jump.
+ *
+ * The speed of a scroll is tracked as it goes; when the fingers lift while still moving,
+ * takeFling() hands it over once to keep the content moving - see HidTransmitter.fling().
+ */
+class TouchGestures {
+    final static public int SWIPE_NONE = 0;
+    final static public int SWIPE_LEFT = 1;
+    final static public int SWIPE_RIGHT = 2;
+    final static public int SWIPE_UP = 3;
+    final static public int SWIPE_DOWN = 4;
+
+    /* Shortcut of every SWIPE_*: modifiers, key usage - back, forward, task view, desktop */
+    final static public byte[][] SWIPE_KEYS = {
+            {0, 0},
+            {KeyboardUsage.META_LEFT_ALT, 0x50},
+            {KeyboardUsage.META_LEFT_ALT, 0x4F},
+            {KeyboardUsage.META_LEFT_META, 0x2B},
+            {KeyboardUsage.META_LEFT_META, 0x07},
+    };
+    /* The same without a keyboard - REPORT_FIELD_CONSUMER_CONTROL bits: tracks and volume */
+    final static public int[] SWIPE_CONSUMER = {0, 0x0008, 0x0004, 0x0080, 0x0100};
+
+    /* Travel deciding between scroll and zoom, inches */
+    private final static float GESTURE_SLOP = 0.08f;
+    private final static float SWIPE_DISTANCE = 0.6f;
+    private final static float SCROLL_DETENTS_PER_INCH = 6.0f;
+    private final static float ZOOM_DETENTS_PER_INCH = 4.0f;
+    /* Slowest scroll which keeps going after the lift, 1 / WHEEL_RESOLUTION detents per second */
+    private final static float FLING_MIN_RATE = 2.0f * ReportField.WHEEL_RESOLUTION;
+    /* Fingers resting longer than that before the lift do not fling */
+    private final static int FLING_MAX_PAUSE_MS = 50;
+    /* Weight of the newest event in the scroll speed */
+    private final static float RATE_SMOOTHING = 0.5f;
+
+    private final static int MODE_NONE = 0;
+    private final static int MODE_SCROLL = 1;
+    private final static int MODE_ZOOM = 2;
+    private final static int MODE_SWIPE = 3;
+    /* Swipe fired - nothing more until the fingers lift */
+    private final static int MODE_DONE = 4;
+
+    private final float x_inch;
+    private final float y_inch;
+    private int mode = MODE_NONE;
+    private int fingers = 0;
+    /* Centroid and span (distance of the first two fingers) of the last event, inches */
+    private float last_x;
+    private float last_y;
+    private float last_span;
+    /* Travel since the finger count changed, before the gesture is decided */
+    private float travel_x;
+    private float travel_y;
+    private float travel_span;
+    /* Not taken yet, 1 / WHEEL_RESOLUTION detents */
+    private float pending_wheel;
+    private float pending_pan;
+    private float pending_zoom;
+    private int pending_swipe = SWIPE_NONE;
+    private long sample_time = -1;
+    /* Scroll speed, 1 / WHEEL_RESOLUTION detents per second, and the time of its last event */
+    private float wheel_rate;
+    private float pan_rate;
+    private long move_time;
+    private boolean fling_pending = false;
+    /* Result of the last successful take() */
+    public int wheel;
+    public int pan;
+    public int zoom;
+    public int swipe;
+    public long event_time;
+    /* Result of the last successful takeFling(), 1 / WHEEL_RESOLUTION detents per second */
+    public float fling_wheel;
+    public float fling_pan;
+
+    TouchGestures(float xdpi, float ydpi) {
+        this.x_inch = 1.0f / xdpi;
+        this.y_inch = 1.0f / ydpi;
+    }
+
+    /* More than one finger is down - the pointer does not move */
+    boolean isActive() {
+        return fingers > 1;
+    }
+
+    boolean isZooming() {
+        return mode == MODE_ZOOM && fingers > 1;
+    }
+
+    void onTouchEvent(MotionEvent event) {
+        int action = event.getActionMasked();
+        int count = event.getPointerCount();
+
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            if (action == MotionEvent.ACTION_UP && fingers > 1) {
+                endScroll(event.getEventTime());
+            }
+
+            fingers = 0;
+            mode = MODE_NONE;
+            return;
+        }
+
+        if (action == MotionEvent.ACTION_POINTER_UP) {
+            count--;
+        }
+
+        if (count != fingers) {
+            if (count < 2 && fingers > 1) {
+                endScroll(event.getEventTime());
+            }
+
+            // A gesture of more fingers goes on with fewer ones only until all of them lift
+            if (count > fingers || fingers < 2) {
+                mode = MODE_NONE;
+            }
+
+            fingers = count;
+            rebase(event, action == MotionEvent.ACTION_POINTER_UP ? event.getActionIndex() : -1);
+            return;
+        }
+
+        if (action == MotionEvent.ACTION_MOVE && fingers > 1) {
+            move(event);
+        }
+    }
+
+    private void rebase(MotionEvent event, int skip) {
+        last_x = centroid(event, skip, true);
+        last_y = centroid(event, skip, false);
+        last_span = span(event, skip);
+        travel_x = 0;
+        travel_y = 0;
+        travel_span = 0;
+        wheel_rate = 0;
+        pan_rate = 0;
+        move_time = event.getEventTime();
+    }
+
+    /* Fingers of a scroll lifted - it flings if they were still moving */
+    private void endScroll(long time) {
+        if (mode != MODE_SCROLL || time - move_time > FLING_MAX_PAUSE_MS ||
+                Math.hypot(wheel_rate, pan_rate) < FLING_MIN_RATE) {
+            return;
+        }
+
+        fling_wheel = wheel_rate;
+        fling_pan = pan_rate;
+        fling_pending = true;
+    }
+
+    private void move(MotionEvent event) {
+        float x = centroid(event, -1, true);
+        float y = centroid(event, -1, false);
+        float span = span(event, -1);
+        float dx = x - last_x;
+        float dy = y - last_y;
+        float dspan = span - last_span;
+        long dt = event.getEventTime() - move_time;
+
+        last_x = x;
+        last_y = y;
+        last_span = span;
+        travel_x += dx;
+        travel_y += dy;
+        travel_span += dspan;
+        sample_time = event.getEventTime();
+        move_time = sample_time;
+
+        if (mode == MODE_NONE) {
+            mode = decide();
+        }
+
+        switch (mode) {
+            case MODE_SCROLL:
+                // Fingers moving up scroll the content up - the wheel turns down
+                dy *= SCROLL_DETENTS_PER_INCH * ReportField.WHEEL_RESOLUTION;
+                dx *= -SCROLL_DETENTS_PER_INCH * ReportField.WHEEL_RESOLUTION;
+                pending_wheel += dy;
+                pending_pan += dx;
+
+                if (dt > 0) {
+                    wheel_rate += (dy * 1000 / dt - wheel_rate) * RATE_SMOOTHING;
+                    pan_rate += (dx * 1000 / dt - pan_rate) * RATE_SMOOTHING;
+                }
+                break;
+            case MODE_ZOOM:
+                pending_zoom += dspan * ZOOM_DETENTS_PER_INCH * ReportField.WHEEL_RESOLUTION;
+                break;
+            case MODE_SWIPE:
+                if (Math.abs(travel_x) >= SWIPE_DISTANCE || Math.abs(travel_y) >= SWIPE_DISTANCE) {
+                    pending_swipe = Math.abs(travel_x) > Math.abs(travel_y) ?
+                            (travel_x < 0 ? SWIPE_LEFT : SWIPE_RIGHT) :
+                            (travel_y < 0 ? SWIPE_UP : SWIPE_DOWN);
+                    mode = MODE_DONE;
+                }
+                break;
+        }
+    }
+
+    private int decide() {
+        float travel = (float) Math.sqrt(travel_x * travel_x + travel_y * travel_y);
+
+        if (fingers > 2) {
+            return MODE_SWIPE;
+        }
+
+        if (travel < GESTURE_SLOP && Math.abs(travel_span) < GESTURE_SLOP) {
+            return MODE_NONE;
+        }
+
+        return Math.abs(travel_span) > travel ? MODE_ZOOM : MODE_SCROLL;
+    }
+
+    /* Mean position of the fingers in inches, skip - index of a lifting finger or -1 */
+    private float centroid(MotionEvent event, int skip, boolean x) {
+        float sum = 0;
+        int n = 0;
+
+        for (int i = 0; i < event.getPointerCount(); i++) {
+            if (i != skip) {
+                sum += x ? event.getX(i) * x_inch : event.getY(i) * y_inch;
+                n++;
+            }
+        }
+
+        return n == 0 ? 0 : sum / n;
+    }
+
+    /* Distance of the first two fingers in inches, 0 with fewer fingers */
+    private float span(MotionEvent event, int skip) {
+        int a = -1;
+        int b = -1;
+        float dx;
+        float dy;
+
+        for (int i = 0; i < event.getPointerCount() && b < 0; i++) {
+            if (i == skip) {
+                continue;
+            }
+
+            if (a < 0) {
+                a = i;
+            } else {
+                b = i;
+            }
+        }
+
+        if (b < 0) {
+            return 0;
+        }
+
+        dx = (event.getX(a) - event.getX(b)) * x_inch;
+        dy = (event.getY(a) - event.getY(b)) * y_inch;
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /*
+     * Move the gathered gestures out into wheel / pan / zoom / swipe, false if there is
+     * nothing to send. step - 1, or WHEEL_RESOLUTION if the host takes whole detents only.
+     */
+    boolean take(int step) {
+        if (sample_time < 0) {
+            return false;
+        }
+
+        wheel = (int) (pending_wheel / step) * step;
+        pan = (int) (pending_pan / step) * step;
+        zoom = (int) (pending_zoom / step) * step;
+        swipe = pending_swipe;
+        pending_wheel -= wheel;
+        pending_pan -= pan;
+        pending_zoom -= zoom;
+        pending_swipe = SWIPE_NONE;
+        event_time = sample_time;
+        sample_time = -1;
+
+        return wheel != 0 || pan != 0 || zoom != 0 || swipe != SWIPE_NONE;
+    }
+
+    /* Speed of a scroll which just ended into fling_wheel / fling_pan, once per scroll */
+    boolean takeFling() {
+        if (!fling_pending) {
+            return false;
+        }
+
+        fling_pending = false;
+        return true;
+    }
+
+    /* Drop whatever was not taken - a new touch starts from scratch */
+    void reset() {
+        fingers = 0;
+        mode = MODE_NONE;
+        pending_wheel = 0;
+        pending_pan = 0;
+        pending_zoom = 0;
+        pending_swipe = SWIPE_NONE;
+        sample_time = -1;
+        fling_pending = false;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+/*
+ * Compiles text into keyboard reports for REPORT_FIELD_KEYBOARD_ROLLOVER (meta byte followed by
+ * six key slots).
+ *
+ * Every report presses exactly one new key, so the host sees the characters in order. Keys stay
+ * held while the following ones are pressed; once all six slots are taken the oldest key is
+ * released in the same report which presses the new one. A release report is only needed when a
+ * key which is still held repeats or the modifiers change.
+ */
+class TypingEngine {
+    final static public int KEY_SLOTS = 6;
+    /* type() never produces more reports than that */
+    final static public int MAX_REPORTS_PER_CHAR = 2;
+
+    private final byte[] keys = new byte[KEY_SLOTS];
+    private int held = 0;
+    private int meta = 0;
+
+    /* Writes the reports needed to type c into out and returns their number */
+    int type(char c, long[] out) {
+        int u = KeyboardUsage.getCharacterUsage(c);
+        int m = u & 0xff;
+        byte k = (byte) (u >> 8);
+        int n = 0;
+
+        if (u == 0) {
+            return 0;
+        }
+
+        if (held > 0 && (m != meta || isHeld(k))) {
+            held = 0;
+            out[n++] = 0;
+        }
+
+        if (held == KEY_SLOTS) {
+            System.arraycopy(keys, 1, keys, 0, KEY_SLOTS - 1);
+            held--;
+        }
+
+        keys[held++] = k;
+        meta = m;
+        out[n++] = report();
+
+        return n;
+    }
+
+    /* Writes the final release into out if any key is still held, returns the number of reports */
+    int finish(long[] out) {
+        if (held == 0) {
+            return 0;
+        }
+
+        held = 0;
+        meta = 0;
+        out[0] = 0;
+
+        return 1;
+    }
+
+    private boolean isHeld(byte k) {
+        for (int i = 0; i < held; i++) {
+            if (keys[i] == k) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private long report() {
+        long r = meta;
+
+        for (int i = 0; i < held; i++) {
+            r |= (keys[i] & 0xffL) << (8 * (i + 1));
+        }
+
+        return r;
+    }
+}
@@ -24,6 +24,10 @@ final class UUIDs {
     public static final String CHAR_HID_CONTROL_POINT = "00002A4C-0000-1000-8000-00805F9B34FB";
     public static final String DESC_REPORT_REFERENCE = "00002908-0000-1000-8000-00805F9B34FB";
     public static final String DESC_CCC = "00002902-0000-1000-8000-00805F9B34FB";
+    public static final String CHAR_PROTOCOL_MODE = "00002A4E-0000-1000-8000-00805F9B34FB";
+    public static final String CHAR_BOOT_KEYBOARD_INPUT = "00002A22-0000-1000-8000-00805F9B34FB";
+    public static final String CHAR_BOOT_KEYBOARD_OUTPUT = "00002A32-0000-1000-8000-00805F9B34FB";
+    public static final String CHAR_BOOT_MOUSE_INPUT = "00002A33-0000-1000-8000-00805F9B34FB";
 
     // DIS related UUIDs
     public static final String SERVICE_DIS = "0000180A-0000-1000-8000-00805F9B34FB";
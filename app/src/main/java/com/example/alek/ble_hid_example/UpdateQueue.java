@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Bounded lock-free multi-producer / single-consumer queue of transmitter events.
+ *
+ * All entries are allocated up front and reused, so neither producers nor the consumer create
+ * garbage. Every slot carries a sequence number: a producer claims a position with a single CAS
+ * and publishes the slot by advancing its sequence, the consumer hands the slot back the same
+ * way once it has read it.
+ */
+class UpdateQueue<D> {
+    static final int UPDATE = 0;
+    static final int SENT = 1;
+    /* UPDATE which does not overtake motion queued before it, see HidTransmitter */
+    static final int UPDATE_AFTER_MOTION = 2;
+
+    private final Entry<D>[] slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    /* Written by the consumer only, read by size() */
+    private volatile long head = 0;
+
+    /* Capacity is rounded up to a power of two */
+    UpdateQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+
+        slots = newSlots(size);
+        mask = size - 1;
+
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Entry<>(i);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <D> Entry<D>[] newSlots(int size) {
+        return (Entry<D>[]) new Entry[size];
+    }
+
+    /* Called from any thread, returns false if the queue is full */
+    boolean offer(int kind, D device, ReportField field, long bits, long mask,
+                  long eventTime, long time) {
+        while (true) {
+            long pos = tail.get();
+            Entry<D> e = slots[(int) (pos & this.mask)];
+            long seq = e.sequence;
+
+            if (seq == pos) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    e.kind = kind;
+                    e.device = device;
+                    e.field = field;
+                    e.bits = bits;
+                    e.mask = mask;
+                    e.eventTime = eventTime;
+                    e.time = time;
+                    e.sequence = pos + 1;
+                    return true;
+                }
+            } else if (seq < pos) {
+                return false;
+            }
+        }
+    }
+
+    /* Consumer only - the entry stays valid until release() */
+    Entry<D> peek() {
+        Entry<D> e = slots[(int) (head & mask)];
+
+        return e.sequence == head + 1 ? e : null;
+    }
+
+    /* Consumer only */
+    void release(Entry<D> e) {
+        e.device = null;
+        e.field = null;
+        e.sequence = head + slots.length;
+        head++;
+    }
+
+    /* Entries offered but not released yet - approximate while producers are running */
+    int size() {
+        return (int) Math.max(tail.get() - head, 0);
+    }
+
+    /* Consumer only */
+    boolean isEmpty() {
+        return peek() == null;
+    }
+
+    static final class Entry<D> {
+        volatile long sequence;
+        int kind;
+        D device;
+        ReportField field;
+        long bits;
+        long mask;
+        /* Time of the source event (touch, key), same clock as time */
+        long eventTime;
+        /* System.nanoTime() of the offer */
+        long time;
+
+        Entry(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/* Character -> (meta | usage << 8) lookup of KeyboardUsage.getCharacterUsage() */
+public class KeyboardUsageTest {
+    private static int usage(int meta, int key) {
+        return (meta & 0xff) | (key << 8);
+    }
+
+    @Test
+    public void lowercaseLetter() {
+        assertEquals(usage(0, 0x04), KeyboardUsage.getCharacterUsage('a'));
+        assertEquals(usage(0, 0x1d), KeyboardUsage.getCharacterUsage('z'));
+    }
+
+    @Test
+    public void uppercaseLetterAddsShift() {
+        assertEquals(usage(KeyboardUsage.META_LEFT_SHIFT, 0x04),
+                KeyboardUsage.getCharacterUsage('A'));
+    }
+
+    @Test
+    public void digitsAndWhitespace() {
+        assertEquals(usage(0, 0x1e), KeyboardUsage.getCharacterUsage('1'));
+        assertEquals(usage(0, 0x2c), KeyboardUsage.getCharacterUsage(' '));
+        assertEquals(usage(0, 0x28), KeyboardUsage.getCharacterUsage('\n'));
+    }
+
+    @Test
+    public void shiftedSymbol() {
+        assertEquals(usage(KeyboardUsage.META_LEFT_SHIFT, 0x1f),
+                KeyboardUsage.getCharacterUsage('@'));
+    }
+
+    @Test
+    public void altGrLetter() {
+        // a with ogonek, lower and upper case
+        assertEquals(usage(KeyboardUsage.META_RIGHT_ALT, 0x04),
+                KeyboardUsage.getCharacterUsage('\u0105'));
+        assertEquals(usage(KeyboardUsage.META_RIGHT_ALT | KeyboardUsage.META_LEFT_SHIFT, 0x04),
+                KeyboardUsage.getCharacterUsage('\u0104'));
+    }
+
+    @Test
+    public void untypableCharacter() {
+        assertEquals(0, KeyboardUsage.getCharacterUsage('\0'));
+        // Euro sign, beyond the table
+        assertEquals(0, KeyboardUsage.getCharacterUsage('\u20ac'));
+        assertEquals(0, KeyboardUsage.getCharacterUsage('\uffff'));
+    }
+}
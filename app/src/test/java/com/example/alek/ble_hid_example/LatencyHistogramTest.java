@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/* Log-linear buckets of LatencyHistogram: 1 us up to 16 us, then 8 sub-buckets per power of 2 */
+public class LatencyHistogramTest {
+    private static final int LAST = LatencyHistogram.BUCKETS - 1;
+
+    @Test
+    public void bucketCount() {
+        assertEquals(240, LatencyHistogram.BUCKETS);
+    }
+
+    @Test
+    public void linearBuckets() {
+        for (int us = 0; us < 16; us++) {
+            assertEquals(us, LatencyHistogram.index(us));
+            assertEquals(us, LatencyHistogram.lowerBound(us));
+            assertEquals(us, LatencyHistogram.upperBound(us));
+        }
+    }
+
+    @Test
+    public void firstLogarithmicBuckets() {
+        assertEquals(16, LatencyHistogram.index(16));
+        assertEquals(16, LatencyHistogram.index(17));
+        assertEquals(17, LatencyHistogram.index(18));
+        assertEquals(16, LatencyHistogram.lowerBound(16));
+        assertEquals(17, LatencyHistogram.upperBound(16));
+        assertEquals(23, LatencyHistogram.index(31));
+        assertEquals(24, LatencyHistogram.index(32));
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+        for (int b = 0; b < LAST; b++) {
+            assertEquals(LatencyHistogram.upperBound(b) + 1, LatencyHistogram.lowerBound(b + 1));
+        }
+    }
+
+    @Test
+    public void boundsMapToTheirBucket() {
+        for (int b = 0; b < LatencyHistogram.BUCKETS; b++) {
+            assertEquals(b, LatencyHistogram.index(LatencyHistogram.lowerBound(b)));
+            assertEquals(b, LatencyHistogram.index(LatencyHistogram.upperBound(b)));
+        }
+    }
+
+    @Test
+    public void relativeWidthIsBounded() {
+        for (int b = 16; b < LatencyHistogram.BUCKETS; b++) {
+            long width = LatencyHistogram.upperBound(b) - LatencyHistogram.lowerBound(b) + 1;
+
+            assertTrue(width * 8 <= LatencyHistogram.lowerBound(b));
+        }
+    }
+
+    @Test
+    public void lastBucketEndsAt32Bits() {
+        assertEquals((1L << 32) - 1, LatencyHistogram.upperBound(LAST));
+        assertEquals(LAST, LatencyHistogram.index((1L << 32) - 1));
+    }
+
+    @Test
+    public void overflowGoesToLastBucket() {
+        LatencyHistogram h = new LatencyHistogram();
+
+        assertEquals(LAST, LatencyHistogram.index(1L << 32));
+        assertEquals(LAST, LatencyHistogram.index(Long.MAX_VALUE));
+
+        h.record(Long.MAX_VALUE);
+        assertEquals(1, h.count(LAST));
+        assertEquals(1, h.count());
+    }
+
+    @Test
+    public void negativeLatencyIsZero() {
+        LatencyHistogram h = new LatencyHistogram();
+
+        h.record(-5000);
+        assertEquals(1, h.count(0));
+    }
+
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram h = new LatencyHistogram();
+
+        assertEquals(0, h.count());
+        assertEquals(0, h.percentile(50));
+        assertEquals(0, h.max());
+    }
+
+    @Test
+    public void percentilesReturnBucketMiddle() {
+        LatencyHistogram h = new LatencyHistogram();
+
+        for (int i = 0; i < 90; i++) {
+            h.record(10000);
+        }
+
+        for (int i = 0; i < 10; i++) {
+            h.record(1000000);
+        }
+
+        // 1000 us falls in [960, 1023] us
+        assertEquals(10000, h.percentile(50));
+        assertEquals(10000, h.percentile(90));
+        assertEquals(991500, h.percentile(91));
+        assertEquals(991500, h.percentile(99));
+        assertEquals(991500, h.percentile(100));
+        assertEquals(10000, h.percentile(0));
+        assertEquals(1023000, h.max());
+    }
+
+    @Test
+    public void singleSample() {
+        LatencyHistogram h = new LatencyHistogram();
+
+        // 17 us shares the [16, 17] us bucket with 16 us
+        h.record(17999);
+        assertEquals(16500, h.percentile(50));
+        assertEquals(17000, h.max());
+    }
+
+    @Test
+    public void clear() {
+        LatencyHistogram h = new LatencyHistogram();
+
+        h.record(1000);
+        h.clear();
+        assertEquals(0, h.count());
+        assertEquals(0, h.max());
+    }
+
+    @Test
+    public void export() {
+        LatencyHistogram h = new LatencyHistogram();
+        StringBuilder sb = new StringBuilder();
+
+        h.record(3000);
+        h.record(3000);
+        h.record(40000);
+        h.export(sb, "x,");
+
+        assertEquals(String.format("x,3,3,2%nx,40,43,1%n"), sb.toString());
+    }
+}
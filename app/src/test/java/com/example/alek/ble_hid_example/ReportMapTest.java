@@ -0,0 +1,213 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/* Report Map bytes and field layouts produced by ReportMap for the feature masks */
+public class ReportMapTest {
+    /* Hand-written basic mode Report Map of the original HidBleService */
+    private final static byte REPORT_MAP_BASIC[] = {
+            (byte) 0x05, (byte) 0x0C, /*        Usage Page (Consumer Devices)       */
+            (byte) 0x09, (byte) 0x01, /*        Usage (Consumer Control)            */
+            (byte) 0xA1, (byte) 0x01, /*        Collection (Application)            */
+            (byte) 0x85, (byte) 0x02, /*        Report ID=2                         */
+            (byte) 0x05, (byte) 0x0C, /*        Usage Page (Consumer Devices)       */
+            (byte) 0x15, (byte) 0x00, /*        Logical Minimum (0)                 */
+            (byte) 0x25, (byte) 0x01, /*        Logical Maximum (1)                 */
+            (byte) 0x75, (byte) 0x01, /*        Report Size (1)                     */
+            (byte) 0x95, (byte) 0x0B, /*        Report Count (11)                   */
+            (byte) 0x09, (byte) 0x6F, /* 1       Usage (Bright Up)                  */
+            (byte) 0x09, (byte) 0x70, /* 2       Usage (Bright Down)                */
+            (byte) 0x09, (byte) 0xB5, /* 3       Usage (Scan Next Track)            */
+            (byte) 0x09, (byte) 0xB6, /* 4       Usage (Scan Previous Track)        */
+            (byte) 0x09, (byte) 0xB7, /* 5       Usage (Stop)                       */
+            (byte) 0x09, (byte) 0xCD, /* 6       Usage (Play / Pause)               */
+            (byte) 0x09, (byte) 0xE2, /* 7       Usage (Mute)                       */
+            (byte) 0x09, (byte) 0xE9, /* 8       Usage (Volume Up)                  */
+            (byte) 0x09, (byte) 0xEA, /* 9       Usage (Volume Down)                */
+            (byte) 0x09, (byte) 0xB8, /* 10      Usage (Eject)                      */
+            (byte) 0x09, (byte) 0xb8, /* 11      Usage (Snapshot)                   */
+            (byte) 0x81, (byte) 0x02, /*        Input (Data, Variable, Absolute)    */
+            (byte) 0x95, (byte) 0x05, /*        Report Count (5)                    */
+            (byte) 0x81, (byte) 0x01, /*        Input (Constant)                    */
+            (byte) 0xC0,
+    };
+
+    /* Features enabled by ApplicationConfiguration defaults */
+    private final static int DEFAULT_FEATURES = ReportField.REP_CONSUMER | ReportField.REP_BASIC;
+
+    private static void assertField(ReportLayout layout, ReportField rf, int bit_offset) {
+        assertEquals(rf.name(), bit_offset, layout.offset(rf));
+    }
+
+    private static int occurrences(byte[] descriptor, byte[] items) {
+        int n = 0;
+
+        for (int i = 0; i + items.length <= descriptor.length; i++) {
+            int j = 0;
+
+            while (j < items.length && descriptor[i + j] == items[j]) {
+                j++;
+            }
+
+            if (j == items.length) {
+                n++;
+            }
+        }
+
+        return n;
+    }
+
+    @Test
+    public void defaultFeaturesMatchBaseline() {
+        assertArrayEquals(REPORT_MAP_BASIC, ReportMap.build(DEFAULT_FEATURES));
+    }
+
+    @Test
+    public void basicModeIgnoresOtherFeatures() {
+        assertArrayEquals(REPORT_MAP_BASIC, ReportMap.build(ReportField.REP_BASIC |
+                ReportField.REP_KEYBOARD | ReportField.REP_MOUSE));
+    }
+
+    @Test
+    public void layoutIsCached() {
+        assertSame(ReportMap.layout(ReportField.REP_MOUSE), ReportMap.layout(ReportField.REP_MOUSE));
+    }
+
+    @Test
+    public void consumerLayout() {
+        ReportLayout layout = ReportMap.layout(ReportField.REP_CONSUMER);
+
+        assertField(layout, ReportField.REPORT_FIELD_CONSUMER_CONTROL, 0);
+        assertField(layout, ReportField.REPORT_FIELD_LAUNCHER_BUTTON, 16);
+        assertField(layout, ReportField.REPORT_FIELD_CONTROL_BUTTON, 25);
+        assertField(layout, ReportField.REPORT_FIELD_MOUSE_X, -1);
+        assertEquals(5, layout.length(InputReport.INPUT_REPORT_CONSUMER));
+        assertEquals(0, layout.length(InputReport.INPUT_REPORT_KEYBOARD));
+    }
+
+    @Test
+    public void keyboardLayout() {
+        ReportLayout layout = ReportMap.layout(ReportField.REP_KEYBOARD);
+
+        assertField(layout, ReportField.REPORT_FIELD_KEYBOARD_META_KEYS, 0);
+        assertField(layout, ReportField.REPORT_FIELD_KEYBOARD_KEYS, 8);
+        assertField(layout, ReportField.REPORT_FIELD_KEYBOARD_NKRO_LOW, -1);
+        assertEquals(7, layout.length(InputReport.INPUT_REPORT_KEYBOARD));
+    }
+
+    @Test
+    public void nkroKeyboardLayout() {
+        ReportLayout layout = ReportMap.layout(ReportField.REP_KEYBOARD |
+                ReportField.REP_KEYBOARD_NKRO);
+
+        assertField(layout, ReportField.REPORT_FIELD_KEYBOARD_META_KEYS, 0);
+        assertField(layout, ReportField.REPORT_FIELD_KEYBOARD_KEYS, 8);
+        assertField(layout, ReportField.REPORT_FIELD_KEYBOARD_ROLLOVER, 0);
+        assertField(layout, ReportField.REPORT_FIELD_KEYBOARD_NKRO_LOW, 56);
+        assertField(layout, ReportField.REPORT_FIELD_KEYBOARD_NKRO_HIGH, 120);
+        assertEquals(20, layout.length(InputReport.INPUT_REPORT_KEYBOARD));
+    }
+
+    @Test
+    public void mouseLayout() {
+        ReportLayout layout = ReportMap.layout(ReportField.REP_MOUSE);
+
+        assertField(layout, ReportField.REPORT_FIELD_MOUSE_BUTTONS, 0);
+        assertField(layout, ReportField.REPORT_FIELD_MOUSE_X, 8);
+        assertField(layout, ReportField.REPORT_FIELD_MOUSE_Y, 16);
+        assertField(layout, ReportField.REPORT_FIELD_MOUSE_XY, 8);
+        assertField(layout, ReportField.REPORT_FIELD_MOUSE_SCROLL, 24);
+        assertField(layout, ReportField.REPORT_FIELD_MOUSE_HIRES_X, -1);
+        assertEquals(4, layout.length(InputReport.INPUT_REPORT_MOUSE));
+        assertEquals(0, layout.featureLength(InputReport.INPUT_REPORT_MOUSE));
+    }
+
+    @Test
+    public void hiresMouseLayout() {
+        ReportLayout layout = ReportMap.layout(ReportField.REP_MOUSE |
+                ReportField.REP_MOUSE_HIRES);
+
+        assertField(layout, ReportField.REPORT_FIELD_MOUSE_BUTTONS, 0);
+        assertField(layout, ReportField.REPORT_FIELD_MOUSE_HIRES_X, 8);
+        assertField(layout, ReportField.REPORT_FIELD_MOUSE_HIRES_Y, 24);
+        assertField(layout, ReportField.REPORT_FIELD_MOUSE_HIRES_XY, 8);
+        assertField(layout, ReportField.REPORT_FIELD_MOUSE_HIRES_SCROLL, 40);
+        assertField(layout, ReportField.REPORT_FIELD_MOUSE_HIRES_PAN, 56);
+        assertField(layout, ReportField.REPORT_FIELD_MOUSE_X, -1);
+        assertEquals(9, layout.length(InputReport.INPUT_REPORT_MOUSE));
+        // Resolution Multiplier feature report
+        assertEquals(1, layout.featureLength(InputReport.INPUT_REPORT_MOUSE));
+        assertArrayEquals(new byte[]{0, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+                        (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff},
+                layout.relativeMask(InputReport.INPUT_REPORT_MOUSE));
+    }
+
+    @Test
+    public void digitizerLayout() {
+        ReportLayout layout = ReportMap.layout(ReportField.REP_DIGITIZER);
+
+        assertField(layout, ReportField.REPORT_FIELD_DIGITIZER_CONTACT_1, 0);
+        assertField(layout, ReportField.REPORT_FIELD_DIGITIZER_CONTACT_2, 28);
+        assertField(layout, ReportField.REPORT_FIELD_DIGITIZER_CONTACT_COUNT, 56);
+        assertField(layout, ReportField.REPORT_FIELD_DIGITIZER_ALL, 0);
+        assertEquals(8, layout.length(InputReport.INPUT_REPORT_DIGITIZER));
+        // Contact Count Maximum feature report
+        assertEquals(1, layout.featureLength(InputReport.INPUT_REPORT_DIGITIZER));
+    }
+
+    @Test
+    public void digitizerAxesHavePhysicalExtents() {
+        byte[] extents = {
+                (byte) 0x35, (byte) 0x00,               /* Physical Minimum (0)         */
+                (byte) 0x46, (byte) 0xE8, (byte) 0x03,  /* Physical Maximum (1000)      */
+                (byte) 0x55, (byte) 0x0E,               /* Unit Exponent (-2)           */
+                (byte) 0x65, (byte) 0x11,               /* Unit (Centimeter)            */
+        };
+
+        assertEquals(DigitizerReport.CONTACTS,
+                occurrences(ReportMap.build(ReportField.REP_DIGITIZER), extents));
+    }
+
+    @Test
+    public void digitizerFeatureReport() {
+        ReportField.updateValues(ReportField.REP_DIGITIZER);
+
+        assertArrayEquals(new byte[]{DigitizerReport.CONTACTS},
+                ReportMap.featureReport(InputReport.INPUT_REPORT_DIGITIZER));
+    }
+
+    @Test
+    public void combinedReportsKeepTheirLayouts() {
+        ReportLayout layout = ReportMap.layout(ReportField.REP_CONSUMER |
+                ReportField.REP_KEYBOARD | ReportField.REP_KEYBOARD_NKRO |
+                ReportField.REP_MOUSE | ReportField.REP_MOUSE_HIRES | ReportField.REP_DIGITIZER);
+
+        assertField(layout, ReportField.REPORT_FIELD_CONTROL_BUTTON, 25);
+        assertField(layout, ReportField.REPORT_FIELD_KEYBOARD_NKRO_HIGH, 120);
+        assertField(layout, ReportField.REPORT_FIELD_MOUSE_HIRES_PAN, 56);
+        assertField(layout, ReportField.REPORT_FIELD_DIGITIZER_CONTACT_COUNT, 56);
+        assertEquals(5, layout.length(InputReport.INPUT_REPORT_CONSUMER));
+        assertEquals(20, layout.length(InputReport.INPUT_REPORT_KEYBOARD));
+        assertEquals(9, layout.length(InputReport.INPUT_REPORT_MOUSE));
+        assertEquals(8, layout.length(InputReport.INPUT_REPORT_DIGITIZER));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Masked writes of ReportState. The consumer report packs the 9-bit launcher field at bit 16
+ * and the 10-bit control field at bit 25, so both straddle byte boundaries.
+ */
+public class ReportStateTest {
+    private static ReportState consumer() {
+        ReportField.updateValues(ReportField.REP_CONSUMER);
+        assertEquals(16, ReportField.REPORT_FIELD_LAUNCHER_BUTTON.bit_offset);
+        assertEquals(25, ReportField.REPORT_FIELD_CONTROL_BUTTON.bit_offset);
+        return new ReportState(InputReport.INPUT_REPORT_CONSUMER);
+    }
+
+    private static byte[] snapshot(ReportState state) {
+        byte[] value = new byte[state.report.length];
+
+        state.snapshot(value);
+        return value;
+    }
+
+    @Test
+    public void fieldAtUnalignedOffset() {
+        ReportState state = consumer();
+
+        assertTrue(state.update(ReportField.REPORT_FIELD_CONTROL_BUTTON, 0x3ff, -1));
+        assertArrayEquals(new byte[]{0, 0, 0, (byte) 0xfe, 0x07}, snapshot(state));
+    }
+
+    @Test
+    public void neighbouringFieldsAreKept() {
+        ReportState state = consumer();
+
+        state.update(ReportField.REPORT_FIELD_CONTROL_BUTTON, 0x3ff, -1);
+        state.update(ReportField.REPORT_FIELD_LAUNCHER_BUTTON, 0x1c7, -1);
+
+        assertArrayEquals(new byte[]{0, 0, (byte) 0xc7, (byte) 0xff, 0x07}, snapshot(state));
+    }
+
+    @Test
+    public void bitsBeyondTheFieldAreIgnored() {
+        ReportState state = consumer();
+
+        state.update(ReportField.REPORT_FIELD_LAUNCHER_BUTTON, 0xffff, -1);
+
+        assertArrayEquals(new byte[]{0, 0, (byte) 0xff, 0x01, 0}, snapshot(state));
+    }
+
+    @Test
+    public void maskSelectsSingleBits() {
+        ReportState state = consumer();
+
+        state.update(ReportField.REPORT_FIELD_CONTROL_BUTTON, 0x3ff, -1);
+        assertTrue(state.update(ReportField.REPORT_FIELD_CONTROL_BUTTON, 0, 0x001));
+        assertTrue(state.update(ReportField.REPORT_FIELD_CONTROL_BUTTON, 0, 0x200));
+
+        assertArrayEquals(new byte[]{0, 0, 0, (byte) 0xfc, 0x03}, snapshot(state));
+    }
+
+    @Test
+    public void unchangedValueIsNotDirty() {
+        ReportState state = consumer();
+
+        assertTrue(state.update(ReportField.REPORT_FIELD_CONTROL_BUTTON, 0x155, -1));
+        assertFalse(state.update(ReportField.REPORT_FIELD_CONTROL_BUTTON, 0x155, -1));
+        assertFalse(state.update(ReportField.REPORT_FIELD_CONTROL_BUTTON, 0x001, 0x001));
+    }
+
+    @Test
+    public void fieldOfAnotherReportIsRejected() {
+        ReportState state = consumer();
+
+        assertFalse(state.update(ReportField.REPORT_FIELD_MOUSE_X, 1, -1));
+    }
+
+    @Test
+    public void relativeDeltaIsConsumedBySnapshot() {
+        ReportState state;
+
+        ReportField.updateValues(ReportField.REP_MOUSE);
+        state = new ReportState(InputReport.INPUT_REPORT_MOUSE);
+
+        state.update(ReportField.REPORT_FIELD_MOUSE_BUTTONS, 0x01, -1);
+        assertTrue(state.update(ReportField.REPORT_FIELD_MOUSE_X, -3, -1));
+
+        assertArrayEquals(new byte[]{0x01, (byte) 0xfd, 0, 0}, snapshot(state));
+        assertArrayEquals(new byte[]{0x01, 0, 0, 0}, snapshot(state));
+        assertFalse(state.update(ReportField.REPORT_FIELD_MOUSE_X, 0, -1));
+    }
+}
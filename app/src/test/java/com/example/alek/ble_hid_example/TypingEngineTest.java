@@ -0,0 +1,107 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/* 6-key rollover reports of TypingEngine: meta byte followed by six key slots */
+public class TypingEngineTest {
+    private TypingEngine engine;
+    private long[] out;
+
+    @Before
+    public void setUp() {
+        engine = new TypingEngine();
+        out = new long[TypingEngine.MAX_REPORTS_PER_CHAR];
+    }
+
+    private long[] type(char c) {
+        int n = engine.type(c, out);
+        long[] reports = new long[n];
+
+        System.arraycopy(out, 0, reports, 0, n);
+        return reports;
+    }
+
+    /* Report with the given meta byte and key usages in slot order */
+    private static long report(int meta, int... keys) {
+        long r = meta;
+
+        for (int i = 0; i < keys.length; i++) {
+            r |= (long) keys[i] << (8 * (i + 1));
+        }
+
+        return r;
+    }
+
+    @Test
+    public void distinctKeysStayHeld() {
+        assertArrayEquals(new long[]{report(0, 0x04)}, type('a'));
+        assertArrayEquals(new long[]{report(0, 0x04, 0x05)}, type('b'));
+        assertArrayEquals(new long[]{report(0, 0x04, 0x05, 0x06)}, type('c'));
+    }
+
+    @Test
+    public void seventhKeyReleasesTheOldest() {
+        for (char c : "abcdef".toCharArray()) {
+            type(c);
+        }
+
+        assertArrayEquals(new long[]{report(0, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0a)}, type('g'));
+    }
+
+    @Test
+    public void repeatedKeyIsReleasedFirst() {
+        type('a');
+
+        assertArrayEquals(new long[]{0, report(0, 0x04)}, type('a'));
+    }
+
+    @Test
+    public void repeatedKeyAmongOthersIsReleasedFirst() {
+        type('a');
+        type('b');
+
+        assertArrayEquals(new long[]{0, report(0, 0x04)}, type('a'));
+    }
+
+    @Test
+    public void modifierChangeReleasesHeldKeys() {
+        type('a');
+
+        assertArrayEquals(new long[]{0, report(KeyboardUsage.META_LEFT_SHIFT, 0x05)},
+                type('B'));
+    }
+
+    @Test
+    public void finishReleasesOnce() {
+        type('a');
+
+        assertEquals(1, engine.finish(out));
+        assertEquals(0, out[0]);
+        assertEquals(0, engine.finish(out));
+    }
+
+    @Test
+    public void untypableCharacterProducesNothing() {
+        assertEquals(0, engine.type('\u20ac', out));
+        assertEquals(0, engine.finish(out));
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import java.util.Arrays;
+
+/* All samples of a simulation run, kept exactly - percentiles are taken after the run */
+class LatencySamples {
+    private long[] samples = new long[1024];
+    private int size = 0;
+
+    void add(long value) {
+        if (size == samples.length) {
+            samples = Arrays.copyOf(samples, size * 2);
+        }
+
+        samples[size++] = value;
+    }
+
+    void addAll(LatencySamples other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.samples[i]);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /* Nearest rank percentile, 0 if there are no samples */
+    long percentile(double p) {
+        long[] sorted;
+
+        if (size == 0) {
+            return 0;
+        }
+
+        sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        return sorted[Math.min(size - 1, Math.max(0, (int) Math.ceil(p / 100 * size) - 1))];
+    }
+}
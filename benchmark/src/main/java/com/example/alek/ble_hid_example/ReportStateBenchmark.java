@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Report encoding done for every input event - an update of the host's report state followed by
+ * the snapshot which becomes the notification value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReportStateBenchmark {
+    private ReportState keyboard;
+    private ReportState mouse;
+    private byte[] keyboardOut;
+    private byte[] mouseOut;
+    private int step = 0;
+
+    @Setup
+    public void setup() {
+        ReportField.updateValues(ReportField.REP_CONSUMER | ReportField.REP_KEYBOARD |
+                ReportField.REP_MOUSE);
+        keyboard = new ReportState(InputReport.INPUT_REPORT_KEYBOARD);
+        mouse = new ReportState(InputReport.INPUT_REPORT_MOUSE);
+        keyboardOut = new byte[InputReport.INPUT_REPORT_KEYBOARD.length];
+        mouseOut = new byte[InputReport.INPUT_REPORT_MOUSE.length];
+    }
+
+    @Benchmark
+    public byte[] keyTransition() {
+        // Alternating press / release, so every update changes the report
+        keyboard.update(ReportField.REPORT_FIELD_KEYBOARD_ROLLOVER, (step++ & 1) << 8, -1);
+        keyboard.snapshot(keyboardOut);
+        return keyboardOut;
+    }
+
+    @Benchmark
+    public byte[] buttonBits() {
+        int bit = 1 << (step++ & 3);
+
+        mouse.update(ReportField.REPORT_FIELD_MOUSE_BUTTONS, bit, bit);
+        mouse.snapshot(mouseOut);
+        return mouseOut;
+    }
+
+    @Benchmark
+    public byte[] motion() {
+        mouse.update(ReportField.REPORT_FIELD_MOUSE_XY, 0xff01, -1);
+        mouse.snapshot(mouseOut);
+        return mouseOut;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import java.util.ArrayList;
+
+/*
+ * End to end scenarios over simulated hosts: typing at N chars/s, mouse at N Hz and both at once,
+ * each against 1 to 7 hosts. Prints input to delivery latency (p50/p99) and delivered reports
+ * per host and second. Runs on the virtual clock, so the numbers do not depend on the machine.
+ *
+ * ./gradlew :benchmark:simulate
+ */
+public final class ScenarioRunner {
+    private static final long MS_NS = 1000000L;
+    private static final long SECOND_NS = 1000 * MS_NS;
+    private static final long DURATION_NS = 10 * SECOND_NS;
+    /* Time for the queues to drain after the input stops */
+    private static final long SETTLE_NS = SECOND_NS;
+    /* Link of a typical desktop host */
+    private static final long INTERVAL_NS = 15 * MS_NS;
+    private static final int PER_EVENT = 4;
+    private static final int MTU = 23;
+    private static final double LOSS = 0.02;
+    /* Typing waits while that many reports are queued, like TextTyper.HIGH_WATER_MARK */
+    private static final int HIGH_WATER_MARK = 16;
+    private static final int[] HOST_COUNTS = {1, 2, 4, 7};
+    private static final String TEXT =
+            "The quick brown fox jumps over the lazy dog, 1234567890 times.\n";
+
+    private ScenarioRunner() {
+    }
+
+    public static void main(String[] args) {
+        ReportField.updateValues(ReportField.REP_CONSUMER | ReportField.REP_KEYBOARD |
+                ReportField.REP_MOUSE);
+
+        System.out.printf("%-28s %5s %10s %9s %9s %10s %8s %8s %8s%n", "scenario", "hosts",
+                "delivered", "p50 [ms]", "p99 [ms]", "reports/s", "stale", "overflow",
+                "retrans");
+
+        for (int hosts : HOST_COUNTS) {
+            run("typing 100 chars/s", hosts, 100, 0);
+            run("typing 1000 chars/s", hosts, 1000, 0);
+            run("mouse 125 Hz", hosts, 0, 125);
+            run("mouse 1000 Hz", hosts, 0, 1000);
+            run("typing 200/s + mouse 500 Hz", hosts, 200, 500);
+        }
+    }
+
+    private static void run(String name, int hostCount, int charsPerSecond, int mouseHz) {
+        final Simulator sim = new Simulator();
+        final HidTransmitter<SimulatedHost> transmitter =
+                new HidTransmitter<>(SimulatedHost.sink(), sim);
+        final ArrayList<SimulatedHost> hosts = new ArrayList<>();
+        LatencySamples latency = new LatencySamples();
+        long delivered = 0;
+        long retransmitted = 0;
+
+        sim.attach(transmitter);
+
+        for (int i = 0; i < hostCount; i++) {
+            SimulatedHost host = new SimulatedHost("host" + i, sim, transmitter, INTERVAL_NS,
+                    PER_EVENT, MTU, LOSS, i + 1);
+
+            hosts.add(host);
+            // Spread the connection events of the hosts over the interval
+            host.connect(INTERVAL_NS * i / hostCount);
+        }
+
+        if (charsPerSecond > 0) {
+            scheduleTyping(sim, transmitter, hosts, SECOND_NS / charsPerSecond);
+        }
+
+        if (mouseHz > 0) {
+            scheduleMouse(sim, transmitter, hosts, SECOND_NS / mouseHz);
+        }
+
+        sim.runUntil(DURATION_NS + SETTLE_NS);
+
+        for (SimulatedHost host : hosts) {
+            latency.addAll(host.latency);
+            delivered += host.delivered;
+            retransmitted += host.retransmitted;
+        }
+
+        System.out.printf("%-28s %5d %10d %9.1f %9.1f %10.1f %8d %8d %8d%n", name, hostCount,
+                delivered, latency.percentile(50) / (double) MS_NS,
+                latency.percentile(99) / (double) MS_NS,
+                delivered / (double) hostCount / (DURATION_NS / (double) SECOND_NS),
+                transmitter.getDroppedStale(), transmitter.getDroppedOverflow(), retransmitted);
+    }
+
+    private static void scheduleTyping(final Simulator sim,
+                                       final HidTransmitter<SimulatedHost> transmitter,
+                                       final ArrayList<SimulatedHost> hosts, final long periodNs) {
+        final TypingEngine engine = new TypingEngine();
+        final long[] reports = new long[TypingEngine.MAX_REPORTS_PER_CHAR];
+
+        sim.schedule(0, new Runnable() {
+            private int position = 0;
+
+            @Override
+            public void run() {
+                boolean typing = sim.nanoTime() < DURATION_NS;
+                int n;
+
+                // The typist keeps the pace it can get, state reports are never dropped.
+                // Like TextTyper, it releases the held keys while it waits.
+                n = typing && transmitter.getBacklog() < HIGH_WATER_MARK ?
+                        engine.type(TEXT.charAt(position++ % TEXT.length()), reports) :
+                        engine.finish(reports);
+
+                for (int i = 0; i < n; i++) {
+                    for (SimulatedHost host : hosts) {
+                        transmitter.update(host, ReportField.REPORT_FIELD_KEYBOARD_ROLLOVER,
+                                reports[i], -1);
+                    }
+                }
+
+                if (typing) {
+                    sim.schedule(sim.nanoTime() + periodNs, this);
+                }
+            }
+        });
+    }
+
+    private static void scheduleMouse(final Simulator sim,
+                                      final HidTransmitter<SimulatedHost> transmitter,
+                                      final ArrayList<SimulatedHost> hosts, final long periodNs) {
+        sim.schedule(0, new Runnable() {
+            @Override
+            public void run() {
+                for (SimulatedHost host : hosts) {
+                    // One step right and down per sample
+                    transmitter.update(host, ReportField.REPORT_FIELD_MOUSE_XY, 0x0101, -1);
+                }
+
+                if (sim.nanoTime() + periodNs < DURATION_NS) {
+                    sim.schedule(sim.nanoTime() + periodNs, this);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/*
+ * Central device at the other end of a simulated BLE link.
+ *
+ * A notification handed over by the transmitter goes into the controller buffer and is
+ * confirmed (onNotificationSent) STACK_DELAY_NS later, like the Android stack does it. While the
+ * controller buffer is full the notification waits in the host stack and is confirmed only when
+ * it gets a buffer. At every connection event up to perEvent buffered notifications go over the
+ * air; a lost one is retried in the next event together with everything behind it. A report
+ * longer than the ATT payload of the MTU is refused.
+ */
+class SimulatedHost {
+    static final int ATT_HEADER = 3;
+    static final int CONTROLLER_BUFFERS = 8;
+    static final long STACK_DELAY_NS = 200000L;
+
+    final String name;
+    /* Input to delivery latency of every delivered report */
+    final LatencySamples latency = new LatencySamples();
+    long delivered = 0;
+    long retransmitted = 0;
+    long refused = 0;
+
+    private final Simulator sim;
+    private final HidTransmitter<SimulatedHost> transmitter;
+    private final long intervalNs;
+    private final int perEvent;
+    private final int mtu;
+    private final double loss;
+    private final Random random;
+    /* Enqueue times of buffered notifications */
+    private final long[] buffer = new long[CONTROLLER_BUFFERS];
+    private final ArrayDeque<Long> stack = new ArrayDeque<>();
+    private int head = 0;
+    private int count = 0;
+
+    private final Runnable confirm = new Runnable() {
+        @Override
+        public void run() {
+            transmitter.onNotificationSent(SimulatedHost.this);
+        }
+    };
+
+    private final Runnable connectionEvent = new Runnable() {
+        @Override
+        public void run() {
+            onConnectionEvent();
+        }
+    };
+
+    SimulatedHost(String name, Simulator sim, HidTransmitter<SimulatedHost> transmitter,
+                  long intervalNs, int perEvent, int mtu, double loss, long seed) {
+        this.name = name;
+        this.sim = sim;
+        this.transmitter = transmitter;
+        this.intervalNs = intervalNs;
+        this.perEvent = perEvent;
+        this.mtu = mtu;
+        this.loss = loss;
+        this.random = new Random(seed);
+    }
+
+    /* Sink for a transmitter whose hosts are all simulated */
+    static HidTransmitter.Sink<SimulatedHost> sink() {
+        return new HidTransmitter.Sink<SimulatedHost>() {
+            @Override
+            public boolean send(NotificationData<SimulatedHost> nd) {
+                return nd.device.send(nd);
+            }
+        };
+    }
+
+    /* First connection event comes phaseNs from now */
+    void connect(long phaseNs) {
+        transmitter.onConnected(this);
+        sim.schedule(sim.nanoTime() + phaseNs, connectionEvent);
+    }
+
+    private boolean send(NotificationData<SimulatedHost> nd) {
+        if (nd.value.length > mtu - ATT_HEADER) {
+            refused++;
+            return false;
+        }
+
+        // The transmitter reuses nd after the confirmation - keep only what is needed
+        if (count < buffer.length) {
+            buffer[(head + count++) % buffer.length] = nd.enqueueTime;
+            sim.schedule(sim.nanoTime() + STACK_DELAY_NS, confirm);
+        } else {
+            stack.add(nd.enqueueTime);
+        }
+
+        return true;
+    }
+
+    private void onConnectionEvent() {
+        long now = sim.nanoTime();
+
+        for (int i = 0; i < perEvent && count > 0; i++) {
+            if (random.nextDouble() < loss) {
+                retransmitted++;
+                break;
+            }
+
+            latency.add(now - buffer[head]);
+            head = (head + 1) % buffer.length;
+            count--;
+            delivered++;
+        }
+
+        while (count < buffer.length && !stack.isEmpty()) {
+            buffer[(head + count++) % buffer.length] = stack.poll();
+            sim.schedule(now + STACK_DELAY_NS, confirm);
+        }
+
+        sim.schedule(now + intervalNs, connectionEvent);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import java.util.PriorityQueue;
+
+/*
+ * Discrete event simulation on a virtual clock. The transmitter is driven from here instead of
+ * its own thread: after every event it runs until it has nothing left to do, so a whole run is
+ * deterministic and takes no wall clock time.
+ */
+class Simulator implements HidTransmitter.Clock {
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private HidTransmitter<?> transmitter;
+    private long now = 0;
+    private long sequence = 0;
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    void attach(HidTransmitter<?> transmitter) {
+        this.transmitter = transmitter;
+    }
+
+    /* Events at the same time run in the order they were scheduled */
+    void schedule(long time, Runnable action) {
+        events.add(new Event(Math.max(time, now), sequence++, action));
+    }
+
+    void runUntil(long end) {
+        Event e;
+
+        while ((e = events.peek()) != null && e.time <= end) {
+            events.poll();
+            now = e.time;
+            e.action.run();
+
+            //noinspection StatementWithEmptyBody
+            while (transmitter.process()) {
+            }
+        }
+
+        now = end;
+    }
+
+    private static final class Event implements Comparable<Event> {
+        final long time;
+        final long sequence;
+        final Runnable action;
+
+        Event(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            if (time != o.time) {
+                return time < o.time ? -1 : 1;
+            }
+
+            return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/* Character to usage lookup and report compilation of typed text, per character */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TypingBenchmark {
+    private static final int TEXT_LENGTH = 4096;
+    private static final String SAMPLE =
+            "The quick brown fox jumps over the lazy dog, 1234567890 times. Zażółć gęślą jaźń!\n";
+
+    private final char[] text = new char[TEXT_LENGTH];
+    private final long[] reports = new long[TypingEngine.MAX_REPORTS_PER_CHAR];
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < TEXT_LENGTH; i++) {
+            text[i] = SAMPLE.charAt(i % SAMPLE.length());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TEXT_LENGTH)
+    public int characterLookup() {
+        int sum = 0;
+
+        for (char c : text) {
+            sum += KeyboardUsage.getCharacterUsage(c);
+        }
+
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TEXT_LENGTH)
+    public long typeText() {
+        TypingEngine engine = new TypingEngine();
+        long sum = 0;
+
+        for (char c : text) {
+            int n = engine.type(c, reports);
+
+            for (int i = 0; i < n; i++) {
+                sum += reports[i];
+            }
+        }
+
+        return sum + engine.finish(reports);
+    }
+}
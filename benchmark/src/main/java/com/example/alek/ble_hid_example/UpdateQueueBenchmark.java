@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018-2019 Aleksander Drewnicki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.alek.ble_hid_example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Transmitter intake under contention - several producer threads (UI, binder, typing) offer
+ * updates while the owner thread drains the ring. Neither side blocks, so a full or an empty
+ * ring shows up as a cheap failed call instead of stalling the group at the end of an iteration.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UpdateQueueBenchmark {
+    private static final Object DEVICE = new Object();
+
+    private final UpdateQueue<Object> queue = new UpdateQueue<>(1024);
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public boolean offer() {
+        long now = System.nanoTime();
+
+        return queue.offer(UpdateQueue.UPDATE, DEVICE, ReportField.REPORT_FIELD_MOUSE_XY,
+                0x0101, -1, now, now);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public boolean drain() {
+        UpdateQueue.Entry<Object> e = queue.peek();
+
+        if (e == null) {
+            return false;
+        }
+
+        queue.release(e);
+        return true;
+    }
+}